@@ -0,0 +1,67 @@
+package jtranslate.bench;
+
+import bsh.EvalError;
+import jtranslate.JTranslateEnvironment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Many small texts translated with one translateAll call against one translate call per
+    text. The texts are 64KB of the corpus cut into pieces of 'chars' characters, so both
+    cases translate the same text per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark
+{
+    @Param({ "class", "script", "rewrite" })
+    public String grammar;
+
+    @Param({ "64", "512" })
+    public int chars;
+
+    private JTranslateEnvironment env;
+    private List<String> texts;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        env = Corpus.environment(grammar);
+        String corpus = Corpus.sources(64);
+        texts = new ArrayList<String>();
+        for(int i = 0; i<corpus.length(); i += chars) {
+            texts.add(corpus.substring(i, Math.min(corpus.length(), i + chars)));
+        }
+    }
+
+    @Benchmark
+    public List<String> translateAll() throws EvalError {
+        return env.translateAll(texts);
+    }
+
+    @Benchmark
+    public List<String> translateEach() throws EvalError {
+        List<String> results = new ArrayList<String>(texts.size());
+        for(int i = 0; i<texts.size(); i++) {
+            results.add(env.translate(texts.get(i), "<batch:"+i+">"));
+        }
+        return results;
+    }
+}
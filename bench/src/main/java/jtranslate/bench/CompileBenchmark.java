@@ -0,0 +1,56 @@
+package jtranslate.bench;
+
+import jtranslate.grammar.GrammarManager;
+import jtranslate.grammar.GrammarRule;
+import jtranslate.grammar.GrammarSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/*
+    GrammarManager.compileRules for every rule of a grammar kind. compileRule expands
+    references in place, so each invocation compiles fresh copies of the parsed rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark
+{
+    @Param({ "class", "script" })
+    public String grammar;
+
+    private LinkedList<GrammarRule> rules;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        GrammarSet set = Corpus.parse(Corpus.grammars(grammar));
+        rules = set.getGrammarRules();
+    }
+
+    @Benchmark
+    public Hashtable<String, GrammarRule> compile() {
+        Hashtable<String, GrammarRule> grams = new Hashtable<String, GrammarRule>();
+        for(GrammarRule rule : rules) {
+            GrammarRule copy = new GrammarRule(rule.getKey(), rule.getRule(), rule.getType());
+            grams.put(copy.getKey(), copy);
+        }
+        new GrammarManager(grams).compileRules();
+        return grams;
+    }
+}
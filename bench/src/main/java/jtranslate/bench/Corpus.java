@@ -0,0 +1,107 @@
+package jtranslate.bench;
+
+import de.susebox.jtopas.ReaderSource;
+import de.susebox.jtopas.TokenizerException;
+import jtranslate.JTranslate;
+import jtranslate.JTranslateEnvironment;
+import jtranslate.grammar.GrammarSet;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/*
+    Benchmark inputs built from the exJava samples in test/. Corpora are the sample sources
+    (or grammars) repeated until they reach the requested size. The repository root is
+    taken from the jtranslate.root system property and defaults to the parent directory,
+    so benchmarks run from bench/ without setup.
+ */
+public class Corpus
+{
+    /*
+        Grammar files of each benchmarked grammar kind. Every set includes global.jtg for the
+        reference rules. The rewrite set has no translation rules at all.
+     */
+    public static final String[] CLASS_GRAMMARS = { "global.jtg", "exJava.jtg" };
+    public static final String[] SCRIPT_GRAMMARS = { "global.jtg", "implicit_assignment.jtg", "prototype_string.jtg", "string_literal.jtg" };
+    public static final String[] REWRITE_GRAMMARS = { "global.jtg" };
+
+    public static File root() {
+        return new File(System.getProperty("jtranslate.root", ".."));
+    }
+
+    public static File grammarDir() {
+        return new File(root(), "test/grammars");
+    }
+
+    public static String[] grammars(String kind) {
+        if(kind.equals("class"))
+            return CLASS_GRAMMARS;
+        else if(kind.equals("script"))
+            return SCRIPT_GRAMMARS;
+        else if(kind.equals("rewrite"))
+            return REWRITE_GRAMMARS;
+        throw new Error("Unknown grammar kind '"+kind+"'");
+    }
+
+    /*
+        The exJava sample sources repeated to at least kilobytes * 1024 characters
+     */
+    public static String sources(int kilobytes) throws IOException {
+        return repeat(FileUtils.listFiles(new File(root(), "test/src"), new String[]{ "java" }, true), kilobytes);
+    }
+
+    /*
+        All grammar files repeated to at least kilobytes * 1024 characters. Only useful for
+        tokenizing, the rule keys repeat.
+     */
+    public static String grammarText(int kilobytes) throws IOException {
+        return repeat(Arrays.asList(grammarDir().listFiles()), kilobytes);
+    }
+
+    public static String read(String grammar) throws IOException {
+        return FileUtils.readFileToString(new File(grammarDir(), grammar), "UTF-8");
+    }
+
+    public static GrammarSet parse(String[] grammars) throws IOException, TokenizerException {
+        GrammarSet set = new GrammarSet();
+        for(String g : grammars) {
+            set.addSet(new jtranslate.parser.GrammarParser(new ReaderSource(new StringReader(read(g)))).parse());
+        }
+        return set;
+    }
+
+    /*
+        Environment for a grammar kind with the translator classes of test/ loaded
+     */
+    public static JTranslateEnvironment environment(String kind) throws Exception {
+        LinkedList<File> files = new LinkedList<File>();
+        for(String g : grammars(kind)) {
+            files.add(new File(grammarDir(), g));
+        }
+        JTranslateEnvironment env = new JTranslateEnvironment(JTranslate.parseGrammarRules(files));
+        env.registerTranslators(new URLClassLoader(new URL[]{
+                new File(root(), "test/translators/").toURI().toURL(),
+                new File(root(), "test/translators2/").toURI().toURL() }));
+        return env;
+    }
+
+    private static String repeat(Iterable<File> files, int kilobytes) throws IOException {
+        StringBuilder sample = new StringBuilder();
+        for(File f : files) {
+            if(f.isFile())
+                sample.append(FileUtils.readFileToString(f, "UTF-8")).append('\n');
+        }
+
+        StringBuilder sb = new StringBuilder(kilobytes * 1024 + sample.length());
+        while(sb.length() < kilobytes * 1024) {
+            sb.append(sample);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package jtranslate.bench;
+
+import de.susebox.jtopas.ReaderSource;
+import de.susebox.jtopas.TokenizerException;
+import jtranslate.grammar.GrammarSet;
+import jtranslate.parser.GrammarParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/*
+    GrammarParser.parse of a single grammar file, read from memory
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark
+{
+    @Param({ "exJava.jtg", "global.jtg", "prototype_string.jtg", "string_literal.jtg" })
+    public String grammar;
+
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        text = Corpus.read(grammar);
+    }
+
+    @Benchmark
+    public GrammarSet parse() throws TokenizerException, IOException {
+        return new GrammarParser(new ReaderSource(new StringReader(text))).parse();
+    }
+}
@@ -0,0 +1,64 @@
+package jtranslate.bench;
+
+import de.susebox.jtopas.StandardTokenizer;
+import de.susebox.jtopas.Token;
+import de.susebox.jtopas.TokenizerException;
+import de.susebox.jtopas.ReaderSource;
+import jtranslate.parser.GrammarParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/*
+    The jtopas nextToken loop with the grammar parser's tokenizer properties, over the
+    grammar files repeated to the corpus size. Returns the token count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark
+{
+    @Param({ "4", "64", "1024" })
+    public int kilobytes;
+
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        text = Corpus.grammarText(kilobytes);
+    }
+
+    @Benchmark
+    public int nextToken() throws TokenizerException {
+        StandardTokenizer tokenizer = new StandardTokenizer(GrammarParser.createProperties());
+        tokenizer.setSource(new ReaderSource(new StringReader(text)));
+        int count = 0;
+        try {
+            while(tokenizer.hasMoreToken()) {
+                if(tokenizer.nextToken().getType() == Token.EOF)
+                    break;
+                count++;
+            }
+        }
+        finally {
+            tokenizer.close();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,67 @@
+package jtranslate.bench;
+
+import bsh.EvalError;
+import jtranslate.JTranslateEnvironment;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+    TranslationManager.translate, through the environment, over a corpus file. 'class' uses
+    the mapped translator classes of exJava.jtg, 'script' the BeanShell rules and 'rewrite'
+    only the rewrite rules of global.jtg.
+
+    The 'string' rule of global.jtg is an unbounded alternation that java.util.regex matches
+    recursively, one frame per character, and in a repeated corpus it spans from the first
+    quote to the last. The forks get a large thread stack for that; corpora above 64KB
+    overflow even that with the scripted grammar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss256m")
+public class TranslateBenchmark
+{
+    @Param({ "class", "script", "rewrite" })
+    public String grammar;
+
+    @Param({ "1", "16", "64" })
+    public int kilobytes;
+
+    private JTranslateEnvironment env;
+    private File source;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        env = Corpus.environment(grammar);
+        source = File.createTempFile("jtranslate-bench", ".java");
+        FileUtils.writeStringToFile(source, Corpus.sources(kilobytes), env.getCharset().name());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        source.delete();
+    }
+
+    @Benchmark
+    public String translate() throws IOException, EvalError {
+        return env.translate(source);
+    }
+}
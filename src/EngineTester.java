@@ -0,0 +1,74 @@
+import jtranslate.JTranslate;
+import jtranslate.JTranslateEnvironment;
+import jtranslate.TranslationEngine;
+import jtranslate.TranslationRun;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Translates the test sources, random pieces of them and a few known conflicts with the
+    sequential and the fused engine and reports every input where the two differ. Every
+    grammar must have inputs that the fused engine translates without falling back to the
+    sequential one, so its own matching and conflict checks are compared as well.
+ */
+public class EngineTester
+{
+    public static final String[] GRAMMARS = { "test/grammars/", "test/testGrammars/fusedConflict.jtg" };
+    public static final String TRANSLATORS = "test/translators/;test/translators2/";
+
+    public static void main(String ... args) throws Exception
+    {
+        List<String> inputs = new ArrayList<String>();
+        StringBuilder all = new StringBuilder();
+        for(File f : FileUtils.listFiles(new File("test/src"), null, true)) {
+            String text = FileUtils.readFileToString(f);
+            inputs.add(text);
+            all.append(text);
+        }
+        inputs.add("ac ac");
+        inputs.add("aac abc bbc");
+
+        Random random = new Random(42);
+        for(int i = 0; i<500; i++) {
+            StringBuilder sb = new StringBuilder();
+            for(int j = random.nextInt(6); j>0; j--) {
+                int start = random.nextInt(all.length());
+                sb.append(all, start, Math.min(all.length(), start + random.nextInt(80)));
+            }
+            inputs.add(sb.toString());
+        }
+
+        int failures = 0;
+        for(String grammar : GRAMMARS) {
+            int fusedRuns = 0;
+            JTranslateEnvironment env = new JTranslateEnvironment(JTranslate.parseGrammarRules(JTranslate.getGrammarFiles(grammar)));
+            JTranslate.loadTranslatorClasses(env, JTranslate.parseArgs(JTranslate.buildEnvironmentOptions(), new String[]{ "--grammar="+grammar, "--translators="+TRANSLATORS }));
+            for(String input : inputs) {
+                env.setEngine(TranslationEngine.Sequential);
+                String sequential = env.translate(input, "<test>");
+                env.setEngine(TranslationEngine.Fused);
+                TranslationRun run = env.newRun();
+                String fused = env.translate(input, "<test>", run);
+                if(env.getConflicts(run).isEmpty())
+                    fusedRuns++;
+                if(!sequential.equals(fused)) {
+                    failures++;
+                    System.out.println(grammar+": engines differ on \""+input+"\"\n\tsequential: \""+sequential+"\"\n\tfused:      \""+fused+"\"");
+                }
+            }
+            System.out.println(grammar+": "+fusedRuns+" of "+inputs.size()+" inputs translated without falling back");
+            if(fusedRuns == 0) {
+                failures++;
+                System.out.println(grammar+": the fused engine fell back on every input");
+            }
+        }
+
+        System.out.println(failures == 0 ? "Fused and sequential output match on "+inputs.size()+" inputs" : failures+" differences");
+        if(failures > 0)
+            System.exit(1);
+    }
+}
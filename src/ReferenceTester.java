@@ -0,0 +1,58 @@
+import jtranslate.GrammarCache;
+import jtranslate.JTranslate;
+import jtranslate.JTranslateEnvironment;
+import jtranslate.grammar.GrammarSet;
+
+import java.io.File;
+import java.util.LinkedList;
+
+/*
+    Compiles grammars with references put together from other references, directly and
+    through a GrammarCache, and checks that both expand them the same way or fail.
+ */
+public class ReferenceTester
+{
+    public static final String COMPOSED = "test/testGrammars/composedReference.jtg";
+    public static final String UNDEFINED = "test/testGrammars/composedUndefined.jtg";
+
+    public static void main(String ... args) throws Exception
+    {
+        int failures = 0;
+        File cacheFile = File.createTempFile("jtranslate-grammar", ".cache");
+        try {
+            LinkedList<File> files = JTranslate.getGrammarFiles(COMPOSED);
+            GrammarSet set = JTranslate.parseGrammarRules(files);
+            JTranslateEnvironment env = new JTranslateEnvironment(set);
+            GrammarCache cache = new GrammarCache(cacheFile, files);
+            cache.save(set);
+            JTranslateEnvironment cached = new JTranslateEnvironment(cache.load());
+
+            String[] results = { env.translate("xyz1 abc2", "<test>"), cached.translate("xyz1 abc2", "<test>") };
+            for(String result : results) {
+                if(!result.equals("C abc2")) {
+                    failures++;
+                    System.out.println(COMPOSED+": expected \"C abc2\", got \""+result+"\"");
+                }
+            }
+        }
+        finally {
+            cacheFile.delete();
+        }
+
+        try {
+            new JTranslateEnvironment(JTranslate.parseGrammarRules(JTranslate.getGrammarFiles(UNDEFINED)));
+            failures++;
+            System.out.println(UNDEFINED+": compiled with an undefined reference");
+        }
+        catch(Error e) {
+            if(!e.getMessage().contains("<nowhere>")) {
+                failures++;
+                System.out.println(UNDEFINED+": unexpected error "+e.getMessage());
+            }
+        }
+
+        System.out.println(failures == 0 ? "Composed references expand the same with and without the grammar cache" : failures+" failures");
+        if(failures > 0)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,15 @@
+package jtranslate;
+
+import java.util.regex.MatchResult;
+
+/*
+    StreamingTranslator whose replacement string is built with the appending method
+ */
+public abstract class AbstractStreamingTranslator implements StreamingTranslator
+{
+    public String translate(MatchResult mat) {
+        StringBuilder sb = new StringBuilder();
+        translate(mat, sb);
+        return sb.toString();
+    }
+}
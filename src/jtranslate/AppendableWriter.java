@@ -0,0 +1,70 @@
+package jtranslate;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+    Writer over any Appendable, so translations can be written into a StringBuilder,
+    CharBuffer or other caller supplied sink. Closing it does not close the Appendable.
+ */
+public class AppendableWriter extends Writer
+{
+    private Appendable out;
+
+    public AppendableWriter(Appendable out) {
+        this.out = out;
+    }
+
+    /*
+        out itself when it already is a Writer
+     */
+    public static Writer wrap(Appendable out) {
+        if(out instanceof Writer)
+            return (Writer)out;
+        return new AppendableWriter(out);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if(out instanceof StringBuilder) {
+            ((StringBuilder)out).append(cbuf, off, len);
+        }
+        else {
+            for(int i = off; i<off+len; i++) {
+                out.append(cbuf[i]);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        out.append(str, off, off+len);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        out.append((char)c);
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        out.append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if(out instanceof Flushable)
+            ((Flushable)out).flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    public Appendable getAppendable() {
+        return out;
+    }
+}
@@ -0,0 +1,109 @@
+package jtranslate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+
+/*
+    Client side of the TranslationDaemon protocol. Connecting throws a
+    java.net.ConnectException when no daemon is listening, so callers can translate
+    in-process instead. Requests carry the token the daemon wrote to
+    TranslationDaemon.tokenFile(port), a missing token file counts as no daemon.
+ */
+public class DaemonClient
+{
+    /*
+        Runs a translation with the given command line arguments on the daemon, copying its
+        log to out and err. Returns the exit code.
+     */
+    public static int run(int port, String[] args, PrintStream out, PrintStream err) throws IOException {
+        String token = token(port);
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            Writer w = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), TranslationDaemon.CHARSET));
+            request(w, token, args);
+            w.write("run\n");
+            w.flush();
+            return response(socket, out, err, null);
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    /*
+        Translates text with the grammar and translators named by args (see
+        JTranslate.buildEnvironmentOptions)
+     */
+    public static String translate(int port, String[] args, String text) throws IOException {
+        String token = token(port);
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            Writer w = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), TranslationDaemon.CHARSET));
+            request(w, token, args);
+            w.write("text "+text.length()+"\n");
+            w.write(text);
+            w.flush();
+
+            StringBuilder result = new StringBuilder();
+            int code = response(socket, System.out, System.err, result);
+            if(code != 0)
+                throw new IOException("Translation daemon failed with exit code "+code);
+            return result.toString();
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    private static String token(int port) throws IOException {
+        File file = TranslationDaemon.tokenFile(port);
+        if(!file.exists())
+            throw new ConnectException("No daemon token in "+file.getPath());
+        return new String(Files.readAllBytes(file.toPath()), TranslationDaemon.CHARSET).trim();
+    }
+
+    private static void request(Writer w, String token, String[] args) throws IOException {
+        w.write("token "+token+"\n");
+        w.write("cwd "+new File("").getAbsolutePath()+"\n");
+        for(String arg : args) {
+            w.write("arg "+arg+"\n");
+        }
+    }
+
+    private static int response(Socket socket, PrintStream out, PrintStream err, StringBuilder text) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), TranslationDaemon.CHARSET));
+        String line;
+        while((line = in.readLine()) != null) {
+            if(line.startsWith("out ")) {
+                out.println(line.substring(4));
+            }
+            else if(line.startsWith("err ")) {
+                err.println(line.substring(4));
+            }
+            else if(line.startsWith("text ")) {
+                char[] chars = new char[Integer.parseInt(line.substring(5))];
+                for(int n = 0, read; n < chars.length; n += read) {
+                    read = in.read(chars, n, chars.length - n);
+                    if(read == -1)
+                        throw new IOException("Translation daemon closed the connection");
+                }
+                if(text != null)
+                    text.append(chars);
+            }
+            else if(line.startsWith("exit ")) {
+                return Integer.parseInt(line.substring(5));
+            }
+        }
+        throw new IOException("Translation daemon closed the connection");
+    }
+}
@@ -0,0 +1,125 @@
+package jtranslate;
+
+import java.io.IOException;
+
+/*
+    Replacements collected during a pass over a source, applied afterwards in a single
+    sweep. Edits must be added in ascending, non-overlapping order, which is the order
+    Matcher.find() produces them in.
+
+    Replacement text is appended to one shared buffer, each edit only records where its
+    replacement ends, so adding an edit allocates nothing once the arrays have grown.
+ */
+public class EditList
+{
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    // end of each edit's replacement in the buffer, it starts where the previous one ends
+    private int[] marks = new int[16];
+    private int size = 0;
+    private int lastEnd = 0;
+    private StringBuilder replacements = new StringBuilder();
+
+    /*
+        Buffer the replacement of the next edit is appended to before calling add(start, end)
+     */
+    public StringBuilder buffer() {
+        return replacements;
+    }
+
+    /*
+        Replaces [start, end) of the source with everything appended to buffer() since the
+        previous edit
+     */
+    public void add(int start, int end) {
+        if(start < lastEnd)
+            throw new Error("Edit ["+start+", "+end+") overlaps a previous edit ending at "+lastEnd);
+        if(size == starts.length)
+            grow();
+        starts[size] = start;
+        ends[size] = end;
+        marks[size] = replacements.length();
+        size++;
+        lastEnd = end;
+    }
+
+    public void add(int start, int end, CharSequence replacement) {
+        replacements.append(replacement);
+        add(start, end);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+        Source range replaced by the i-th edit
+     */
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int end(int i) {
+        return ends[i];
+    }
+
+    public int replacementLength(int i) {
+        return marks[i] - (i == 0 ? 0 : marks[i-1]);
+    }
+
+    public void clear() {
+        size = 0;
+        lastEnd = 0;
+        replacements.setLength(0);
+    }
+
+    public String apply(CharSequence source) {
+        if(size == 0)
+            return source.toString();
+
+        int length = source.length() + replacements.length();
+        for(int i = 0; i<size; i++) {
+            length -= ends[i] - starts[i];
+        }
+
+        StringBuilder sb = new StringBuilder(length);
+        int last = 0;
+        int mark = 0;
+        for(int i = 0; i<size; i++) {
+            sb.append(source, last, starts[i]).append(replacements, mark, marks[i]);
+            last = ends[i];
+            mark = marks[i];
+        }
+        sb.append(source, last, source.length());
+        return sb.toString();
+    }
+
+    /*
+        Writes the edited source to out without building it as a String first
+     */
+    public void apply(CharSequence source, Appendable out) throws IOException {
+        int last = 0;
+        int mark = 0;
+        for(int i = 0; i<size; i++) {
+            out.append(source, last, starts[i]).append(replacements, mark, marks[i]);
+            last = ends[i];
+            mark = marks[i];
+        }
+        out.append(source, last, source.length());
+    }
+
+    private void grow() {
+        int n = starts.length * 2;
+        int[] s = new int[n], e = new int[n], m = new int[n];
+        System.arraycopy(starts, 0, s, 0, size);
+        System.arraycopy(ends, 0, e, 0, size);
+        System.arraycopy(marks, 0, m, 0, size);
+        starts = s;
+        ends = e;
+        marks = m;
+    }
+}
@@ -0,0 +1,75 @@
+package jtranslate;
+
+import de.susebox.jtopas.TokenizerException;
+import org.apache.commons.cli.CommandLine;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Environments kept by the daemon, keyed by the options they were built from. An
+    environment is built again when a grammar file or anything on its translator classpath
+    changed since it was built.
+ */
+public class EnvironmentCache
+{
+    // every option JTranslate.createEnvironment reads
+    private static final String[] KEY_OPTIONS = { "g", "G", "t", "c", "e", "w", "K", "E", "P", "m", "F", "T" };
+
+    private Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /*
+        Environments are built one at a time, requests for cached ones only wait for that
+        while a build is running.
+     */
+    public synchronized JTranslateEnvironment get(CommandLine cl, PrintStream err) throws IOException, ClassNotFoundException, InstantiationException, IllegalAccessException, TokenizerException {
+        String key = key(cl);
+        String stamp = stamp(cl);
+        Entry entry = entries.get(key);
+        if(entry == null || !entry.stamp.equals(stamp)) {
+            entry = new Entry(JTranslate.createEnvironment(cl, err), stamp);
+            entries.put(key, entry);
+        }
+        return entry.env;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /*
+        Flags and options with an optional argument are set without a value, so whether an
+        option is set is part of the key as well as its value.
+     */
+    private static String key(CommandLine cl) {
+        StringBuilder sb = new StringBuilder();
+        for(String opt : KEY_OPTIONS) {
+            sb.append(opt).append(cl.hasOption(opt) ? "+" : "-").append('=').append(cl.getOptionValue(opt)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String stamp(CommandLine cl) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        JTranslate.stamp(new String[]{ cl.getOptionValue("g") }, sb);
+        JTranslate.stamp(cl.getOptionValue("t").split(";"), sb);
+        return sb.toString();
+    }
+
+    private static class Entry
+    {
+        final JTranslateEnvironment env;
+        final String stamp;
+
+        Entry(JTranslateEnvironment env, String stamp) {
+            this.env = env;
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package jtranslate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+    Channel based reading and writing of source files. Files above MAP_THRESHOLD are
+    memory-mapped instead of copied into a heap buffer before decoding. Output is encoded
+    into a direct buffer that each thread reuses and written straight to the channel.
+ */
+public class FileIO
+{
+    public static final int MAP_THRESHOLD = 1 << 20;
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    public static CharBuffer read(File file, Charset charset) throws IOException {
+        return read(file, charset, null);
+    }
+
+    /*
+        Reads file and adds its raw contents to digest, unless that is null
+     */
+    public static CharBuffer read(File file, Charset charset, MessageDigest digest) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("File is too large to translate in memory, use --stream: "+file.getPath());
+
+            ByteBuffer bytes;
+            if(size > MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            else {
+                bytes = ByteBuffer.allocate((int)size);
+                while(bytes.hasRemaining() && channel.read(bytes) != -1);
+                bytes.flip();
+            }
+
+            if(digest != null)
+                digest.update(bytes.duplicate());
+            return decoder(charset).decode(bytes);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public static Reader reader(File file, Charset charset) throws IOException {
+        return reader(file, charset, null);
+    }
+
+    /*
+        Reader of file that adds the raw contents it reads to digest, unless that is null
+     */
+    public static Reader reader(File file, Charset charset, MessageDigest digest) throws IOException {
+        if(digest == null)
+            return Channels.newReader(new FileInputStream(file).getChannel(), decoder(charset), BUFFER_SIZE);
+        InputStream in = new DigestInputStream(new FileInputStream(file), digest);
+        return Channels.newReader(Channels.newChannel(in), decoder(charset), BUFFER_SIZE);
+    }
+
+    public static Writer writer(File file, Charset charset) throws IOException {
+        return Channels.newWriter(new FileOutputStream(file).getChannel(), encoder(charset), BUFFER_SIZE);
+    }
+
+    public static void write(File file, CharSequence text, Charset charset) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            CharsetEncoder encoder = encoder(charset);
+            CharBuffer chars = CharBuffer.wrap(text);
+            ByteBuffer buffer = buffers.get();
+            buffer.clear();
+
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, buffer, true);
+                if(result.isError())
+                    result.throwException();
+                drain(buffer, channel);
+            } while(result.isOverflow());
+
+            do {
+                result = encoder.flush(buffer);
+                drain(buffer, channel);
+            } while(result.isOverflow());
+        }
+        catch(CharacterCodingException e) {
+            throw new IOException("Could not encode output for "+file.getPath(), e);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /*
+        SHA-1 of the raw file contents as a hex string
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest md = sha1();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = buffers.get();
+            buffer.clear();
+            while(channel.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        }
+        finally {
+            in.close();
+        }
+        return hex(md.digest());
+    }
+
+    public static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+    }
+
+    public static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length*2);
+        for(byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static CharsetDecoder decoder(Charset charset) {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static CharsetEncoder encoder(Charset charset) {
+        return charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
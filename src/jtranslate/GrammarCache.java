@@ -0,0 +1,187 @@
+package jtranslate;
+
+import jtranslate.grammar.GrammarRule;
+import jtranslate.grammar.GrammarSet;
+import jtranslate.grammar.GrammarType;
+import jtranslate.grammar.RewriteRule;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+    Binary copy of a parsed and compiled grammar, so later runs skip tokenizing and parsing
+    the grammar files. The cache holds the rewrite rules and every rule with its expanded
+    pattern, type, translator name, script, maximum match length and required literals, so
+    loading only has to compile the patterns. It is keyed by a hash over the paths and
+    contents of the grammar files and ignored when any of them changed.
+
+    Layout, all strings as an int length followed by UTF-8 bytes, -1 for null:
+
+        int MAGIC, int VERSION, string key
+        int count, then search and replace of every rewrite rule
+        int count, then of every grammar rule: key, type, pattern, translator, script,
+        boolean span declared, int span, int literal count (-1 for unknown) and literals
+ */
+public class GrammarCache
+{
+    private static final int MAGIC = 0x4A544743;
+    // bump when the layout changes
+    private static final int VERSION = 1;
+
+    private File file;
+    private String key;
+
+    public GrammarCache(File file, Iterable<File> grammarFiles) throws IOException {
+        this.file = file;
+        this.key = key(grammarFiles);
+    }
+
+    /*
+        The cached grammar, or null when there is none for the current grammar files. Rules
+        are compiled, JTranslateEnvironment finds no references left to expand.
+     */
+    public GrammarSet load() throws IOException {
+        if(!file.isFile())
+            return null;
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+        try {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(readString(in)))
+                return null;
+
+            GrammarSet set = new GrammarSet();
+            for(int i = in.readInt(); i > 0; i--) {
+                set.addRewriteRule(new RewriteRule(readString(in), readString(in)));
+            }
+            for(int i = in.readInt(); i > 0; i--) {
+                String ruleKey = readString(in);
+                GrammarType type = GrammarType.valueOf(readString(in));
+                GrammarRule rule = new GrammarRule(ruleKey, readString(in), type);
+                rule.setTranslatorName(readString(in));
+                rule.setScript(readString(in));
+                boolean declared = in.readBoolean();
+                int span = in.readInt();
+                if(declared)
+                    rule.setMaxSpan(span);
+                rule.setAnalysis(span, readLiterals(in));
+                set.addGrammarRule(rule);
+            }
+            return set;
+        }
+        catch(IOException e) {
+            // truncated or written by another version, parse the grammar again
+            return null;
+        }
+        catch(IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /*
+        Writes set, which must be compiled, through a temporary file so an interrupted run
+        can't leave a corrupt cache
+     */
+    public void save(GrammarSet set) throws IOException {
+        File tmp = new File(file.getPath()+".tmp");
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(dir != null && !dir.exists() && !dir.mkdirs())
+            throw new IOException("Can not create grammar cache directory "+dir.getPath());
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, key);
+            out.writeInt(set.getRewriteRules().size());
+            for(RewriteRule rr : set.getRewriteRules()) {
+                writeString(out, rr.getSearch());
+                writeString(out, rr.getReplace());
+            }
+            out.writeInt(set.getGrammarRules().size());
+            for(GrammarRule rule : set.getGrammarRules()) {
+                writeString(out, rule.getKey());
+                writeString(out, rule.getType().name());
+                writeString(out, rule.getRule());
+                writeString(out, rule.getTranslatorName());
+                writeString(out, rule.getScript());
+                out.writeBoolean(rule.isSpanDeclared());
+                out.writeInt(rule.getMaxSpan());
+                writeLiterals(out, rule.getRequiredLiterals());
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if(file.exists() && !file.delete())
+            throw new IOException("Can not replace grammar cache "+file.getPath());
+        if(!tmp.renameTo(file))
+            throw new IOException("Can not write grammar cache "+file.getPath());
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    private static String key(Iterable<File> grammarFiles) throws IOException {
+        TreeMap<String, File> sorted = new TreeMap<String, File>();
+        for(File f : grammarFiles) {
+            sorted.put(f.getCanonicalPath(), f);
+        }
+        StringBuilder sb = new StringBuilder();
+        for(String path : sorted.keySet()) {
+            sb.append(path).append(' ').append(FileIO.hash(sorted.get(path))).append('\n');
+        }
+        return FileIO.hex(FileIO.sha1().digest(sb.toString().getBytes("UTF-8")));
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if(s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeLiterals(DataOutputStream out, Set<String> literals) throws IOException {
+        out.writeInt(literals == null ? -1 : literals.size());
+        if(literals != null) {
+            for(String literal : literals) {
+                writeString(out, literal);
+            }
+        }
+    }
+
+    private static Set<String> readLiterals(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count < 0)
+            return null;
+        Set<String> literals = new LinkedHashSet<String>();
+        for(int i = 0; i<count; i++) {
+            literals.add(readString(in));
+        }
+        return literals;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0)
+            return null;
+        if(length > in.available())
+            throw new IOException("Grammar cache is truncated");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,96 @@
+package jtranslate;
+
+/*
+    CharSequence that stops a runaway regular expression. java.util.regex reads the input
+    through charAt, also while backtracking, so every CHECK_INTERVAL reads the clock is
+    checked and a Timeout is thrown once the deadline has passed. Call startMatch() before
+    every find() to start the match budget.
+
+    toString() returns the wrapped text itself, so Matcher.toMatchResult() does not copy it.
+ */
+public class InterruptibleCharSequence implements CharSequence
+{
+    public static final int CHECK_INTERVAL = 1024;
+
+    private final CharSequence text;
+    private final long matchNanos;
+    private final long fileDeadline;
+    private final boolean fileLimited;
+    private long deadline;
+    private boolean limited;
+    private int reads;
+
+    /*
+        started is the System.nanoTime() the file budget is counted from
+     */
+    public InterruptibleCharSequence(CharSequence text, long matchNanos, long fileNanos, long started) {
+        this.text = text;
+        this.matchNanos = matchNanos;
+        this.fileLimited = fileNanos > 0;
+        this.fileDeadline = started + fileNanos;
+        startMatch();
+    }
+
+    public void startMatch() {
+        reads = 0;
+        limited = fileLimited || matchNanos > 0;
+        if(matchNanos > 0) {
+            long match = System.nanoTime() + matchNanos;
+            deadline = fileLimited && fileDeadline - match < 0 ? fileDeadline : match;
+        }
+        else {
+            deadline = fileDeadline;
+        }
+    }
+
+    public char charAt(int index) {
+        if(limited && ++reads >= CHECK_INTERVAL) {
+            reads = 0;
+            long now = System.nanoTime();
+            if(now - deadline >= 0)
+                throw new Timeout(index, fileLimited && now - fileDeadline >= 0);
+        }
+        return text.charAt(index);
+    }
+
+    public int length() {
+        return text.length();
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    public static class Timeout extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int offset;
+        private final boolean file;
+
+        Timeout(int offset, boolean file) {
+            super("Time budget exceeded at offset "+offset, null, false, false);
+            this.offset = offset;
+            this.file = file;
+        }
+
+        /*
+            Offset the expression was reading when it was stopped
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /*
+            True when the file budget ran out, false for the match budget
+         */
+        public boolean isFileBudget() {
+            return file;
+        }
+    }
+}
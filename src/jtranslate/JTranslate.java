@@ -5,27 +5,37 @@ import de.susebox.jtopas.ReaderSource;
 import de.susebox.jtopas.TokenizerException;
 import jtranslate.grammar.GrammarRule;
 import jtranslate.grammar.GrammarSet;
+import jtranslate.grammar.RuleConflict;
 import jtranslate.parser.GrammarParser;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.*;
+import java.net.ConnectException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class JTranslate
 {
     public static Options buildOptions()
     {
-        Options opts = new Options();
-
-        Option grammar = new Option("g", "grammar", true, "Input grammar file or input grammer directory");
-        grammar.setValueSeparator('=');
-        grammar.setRequired(true);
-        opts.addOption(grammar);
+        Options opts = buildEnvironmentOptions();
 
         Option source = new Option("s", "source", true, "Input source file or source file directory");
         source.setValueSeparator('=');
@@ -37,13 +47,110 @@ public class JTranslate
         output.setRequired(true);
         opts.addOption(output);
 
+        Option threads = new Option("n", "threads", true, "Number of files translated concurrently. Defaults to the number of available processors");
+        threads.setValueSeparator('=');
+        opts.addOption(threads);
+
+        Option include = new Option("I", "include", true, "Only translate sources in the source directory matching one of these comma separated globs. Globs without a '/' match the file name, others the path relative to the source directory");
+        include.setValueSeparator('=');
+        opts.addOption(include);
+
+        Option exclude = new Option("X", "exclude", true, "Skip sources and directories matching one of these comma separated globs, matched like --include");
+        exclude.setValueSeparator('=');
+        opts.addOption(exclude);
+
+        Option extensions = new Option("x", "extensions", true, "Only translate sources in the source directory with one of these comma separated file extensions");
+        extensions.setValueSeparator('=');
+        opts.addOption(extensions);
+
+        opts.addOption("S", "stream", false, "Translate files as streams through a sliding window instead of reading them into memory");
+
+        opts.addOption("i", "incremental", false, "Skip sources that have not changed since the last run into the output directory. Changes to the grammar, translators or options translate everything again");
+
+        opts.addOption("W", "watch", false, "Keep running after translating and translate sources again as soon as they are created or modified");
+
+        Option connect = new Option("C", "connect", true, "Send the translation to a daemon listening on this port (default "+TranslationDaemon.DEFAULT_PORT+"). Translates in-process when no daemon is running");
+        connect.setValueSeparator('=');
+        connect.setOptionalArg(true);
+        opts.addOption(connect);
+
+        opts.addOption("h", "help", false, "Display usage information");
+
+        return opts;
+    }
+
+    /*
+        Options that decide how the environment is built, shared by file translations and
+        inline text sent to the daemon.
+     */
+    public static Options buildEnvironmentOptions()
+    {
+        Options opts = new Options();
+
+        Option grammar = new Option("g", "grammar", true, "Input grammar file or input grammer directory");
+        grammar.setValueSeparator('=');
+        grammar.setRequired(true);
+        opts.addOption(grammar);
+
+        Option grammarCache = new Option("G", "grammar-cache", true, "Keep the compiled grammar in this file and load it from there while the grammar files are unchanged");
+        grammarCache.setValueSeparator('=');
+        opts.addOption(grammarCache);
 
         Option translator = new Option("t", "translators", true, "Path to class file, jar file, or directory of both. If this is a directory, the path must have a trailing file separator. May specify a list of paths delimited by ';'");
         translator.setValueSeparator('=');
         translator.setRequired(true);
         opts.addOption(translator);
 
-        opts.addOption("h", "help", false, "Display usage information");
+        Option engine = new Option("e", "engine", true, "Translation engine, 'sequential' (default) or 'fused'. The fused engine scans each file once for all rules");
+        engine.setValueSeparator('=');
+        opts.addOption(engine);
+
+        Option scriptCache = new Option("c", "script-cache", true, "Compile scripted rules to java classes, cached in this directory. Requires a JDK");
+        scriptCache.setValueSeparator('=');
+        opts.addOption(scriptCache);
+
+        Option window = new Option("w", "window", true, "Window size in characters for --stream. Also the maximum match length of rules without a known one. Defaults to 65536");
+        window.setValueSeparator('=');
+        opts.addOption(window);
+
+        opts.addOption("K", "strict-window", false, "Fail when a streamed match runs into the end of the window instead of warning that it may be cut off");
+
+        Option encoding = new Option("E", "encoding", true, "Character encoding of source and output files. Defaults to the platform encoding");
+        encoding.setValueSeparator('=');
+        opts.addOption(encoding);
+
+        Option matchTimeout = new Option("m", "match-timeout", true, "Milliseconds a rule may spend searching for a single match. Unlimited by default");
+        matchTimeout.setValueSeparator('=');
+        opts.addOption(matchTimeout);
+
+        Option fileTimeout = new Option("F", "file-timeout", true, "Milliseconds a rule may spend on a single source. Unlimited by default");
+        fileTimeout.setValueSeparator('=');
+        opts.addOption(fileTimeout);
+
+        Option timeoutPolicy = new Option("T", "timeout-policy", true, "What to do when a rule runs out of time: 'abort' (default) stops with an error, 'skip' leaves the source untranslated by that rule and goes on");
+        timeoutPolicy.setValueSeparator('=');
+        opts.addOption(timeoutPolicy);
+
+        Option profile = new Option("P", "profile", true, "Print the time spent in every rule after translating, slowest first. Also writes the report as JSON when given a file name");
+        profile.setValueSeparator('=');
+        profile.setOptionalArg(true);
+        opts.addOption(profile);
+
+        return opts;
+    }
+
+    /*
+        Options for starting the daemon. Only used when --daemon is the sole argument.
+     */
+    public static Options buildDaemonOptions()
+    {
+        Options opts = new Options();
+
+        Option daemon = new Option("D", "daemon", true, "Run as a translation daemon on this loopback port (default "+TranslationDaemon.DEFAULT_PORT+"), keeping grammars and translators loaded between requests");
+        daemon.setValueSeparator('=');
+        daemon.setOptionalArg(true);
+        daemon.setRequired(true);
+        opts.addOption(daemon);
 
         return opts;
     }
@@ -53,6 +160,15 @@ public class JTranslate
     }
 
 	public static void main(String[] args) throws IOException, ClassNotFoundException, InstantiationException, IllegalAccessException, TokenizerException, EvalError {
+        try {
+            CommandLine daemon = parseArgs(buildDaemonOptions(), args);
+            new TranslationDaemon(port(daemon.getOptionValue("D"))).serve();
+            return;
+        }
+        catch(ParseException e) {
+            // not a daemon, a normal translation
+        }
+
         Options opts = buildOptions();
         CommandLine cl = null;
         HelpFormatter help = new HelpFormatter();
@@ -67,72 +183,365 @@ public class JTranslate
 
         if(cl.hasOption("h")) {
             help.printHelp("JExtend", opts);
+            help.printHelp("JExtend", buildDaemonOptions());
             return;
         }
 
+        if(cl.hasOption("C") && !cl.hasOption("W")) {
+            try {
+                System.exit(DaemonClient.run(port(cl.getOptionValue("C")), args, System.out, System.err));
+            }
+            catch(ConnectException e) {
+                System.err.println("No translation daemon running, translating in-process");
+            }
+        }
+
+        JTranslateEnvironment env = createEnvironment(cl, System.err);
+        run(cl, env, System.out);
 
+        if(cl.hasOption("W")) {
+            File srcFile = new File(cl.getOptionValue("s"));
+            System.out.println("\nWatching "+srcFile.getCanonicalPath()+" for changes...");
+            watch(srcFile, outputDir(cl), System.getProperty("file.separator").trim(), env, cl, manifest(cl, env));
+        }
+	}
+
+    public static int port(String value) {
+        return value == null ? TranslationDaemon.DEFAULT_PORT : Integer.parseInt(value);
+    }
+
+    /*
+        Parses the grammar, loads the translators and applies the environment options.
+        Messages about scripts that could not be compiled go to err.
+     */
+    public static JTranslateEnvironment createEnvironment(CommandLine cl, PrintStream err) throws IOException, ClassNotFoundException, InstantiationException, IllegalAccessException, TokenizerException {
 		LinkedList<File> grammerFiles = getGrammarFiles(cl.getOptionValue("g"));
-        GrammarSet set = parseGrammarRules(grammerFiles);
+        GrammarCache cache = cl.hasOption("G") ? new GrammarCache(new File(cl.getOptionValue("G")), grammerFiles) : null;
+        GrammarSet set = cache == null ? null : cache.load();
+        boolean cached = set != null;
+        if(!cached) {
+            set = parseGrammarRules(grammerFiles);
+        }
 		JTranslateEnvironment env = new JTranslateEnvironment(set);
-        loadTranslatorClasses(env, cl);
+        if(cache != null && !cached) {
+            // rules are compiled in place by the environment
+            cache.save(set);
+        }
+        URLClassLoader translators = translatorLoader(cl);
+        env.registerTranslators(translators);
+        if(cl.hasOption("c")) {
+            for(String error : env.compileScripts(new File(cl.getOptionValue("c")), translators)) {
+                err.println("Script not compiled, using BeanShell: "+error);
+            }
+        }
+        if(cl.hasOption("E")) {
+            env.setCharset(Charset.forName(cl.getOptionValue("E")));
+        }
+        if(cl.hasOption("w")) {
+            env.setWindow(Integer.parseInt(cl.getOptionValue("w")));
+        }
+        if(cl.hasOption("K")) {
+            env.setStrictWindow(true);
+        }
+        if(cl.hasOption("e")) {
+            env.setEngine(parseEngine(cl.getOptionValue("e")));
+        }
+        if(cl.hasOption("P")) {
+            env.setProfiling(true);
+        }
+        if(cl.hasOption("m") || cl.hasOption("F")) {
+            TimeoutPolicy policy = cl.hasOption("T") ? parseTimeoutPolicy(cl.getOptionValue("T")) : TimeoutPolicy.Abort;
+            env.setBudget(new MatchBudget(Long.parseLong(cl.getOptionValue("m", "0")), Long.parseLong(cl.getOptionValue("F", "0")), policy));
+        }
+        return env;
+    }
 
+    /*
+        Translates the source file or directory of cl with an environment built for it,
+        logging to out.
+     */
+    public static void run(CommandLine cl, JTranslateEnvironment env, PrintStream out) throws IOException, EvalError {
 		String sep = System.getProperty("file.separator").trim();
-        String sourcePath = cl.getOptionValue("s");
-	    String outputDir = "";
-        File srcFile = new File(sourcePath);
+        File srcFile = new File(cl.getOptionValue("s"));
 
         long start = System.currentTimeMillis();
 
-        if(cl.hasOption("o"))
-            outputDir = cl.getOptionValue("o");
-        else if(srcFile.isDirectory()) {
-            outputDir = srcFile.getCanonicalPath();
-        }
-        else {
-            outputDir = new File(sourcePath).getParent();
-        }
-
-        File outputDirFile = new File(outputDir);
+        File outputDirFile = outputDir(cl);
         if(!outputDirFile.exists()) {
             outputDirFile.mkdir();
         }
 
-        if(srcFile.isDirectory())
-        {
-            for(File src : FileUtils.listFiles(srcFile, null, true)) {
-                translate(src, outputDirFile, sep, env, cl);
+        TranslationManifest manifest = manifest(cl, env);
+        TranslationRun run = env.newRun();
+
+        try {
+            if(srcFile.isDirectory())
+            {
+                int threads = cl.hasOption("n") ? Integer.parseInt(cl.getOptionValue("n")) : Runtime.getRuntime().availableProcessors();
+                SourceScanner sources = new SourceScanner(srcFile, sourceFilter(cl), threads);
+                try {
+                    translate(sources, outputDirFile, sep, env, cl, manifest, threads, out, run);
+                }
+                finally {
+                    sources.shutdown();
+                }
+            }
+            else {
+                translate(srcFile, outputDirFile, sep, env, cl, manifest, out, run);
             }
         }
-        else {
-            translate(srcFile, outputDirFile, sep, env, cl);
+        finally {
+            if(manifest != null) {
+                if(srcFile.isDirectory()) {
+                    for(String path : manifest.removeMissing(srcFile, outputDirFile))
+                        out.println("Removed output of deleted source: "+new File(outputDirFile, path).getPath());
+                }
+                manifest.save();
+            }
         }
         long end = System.currentTimeMillis();
         long seconds = (end - start)/1000;
         long remain = (end - start)%1000;
-        System.out.println("\n\nTranslation Duration: "+seconds+"."+remain+" seconds");
+        out.println("\n\nTranslation Duration: "+seconds+"."+remain+" seconds");
+
+        report(cl, env, run, out);
+    }
+
+    /*
+        Prints the rule conflicts, skipped rules, window overflows and rule profile of run,
+        and writes the profile to the file given with --profile
+     */
+    public static void report(CommandLine cl, JTranslateEnvironment env, TranslationRun run, PrintStream out) throws IOException {
+        if(env.getEngine() == TranslationEngine.Fused) {
+            LinkedList<RuleConflict> conflicts = env.getConflicts(run);
+            if(!conflicts.isEmpty()) {
+                out.println("\nFused engine fell back to sequential translation because of these rule conflicts:");
+                for(RuleConflict c : conflicts) {
+                    out.println("\t"+c);
+                }
+            }
+        }
+
+        List<RuleTimeout> timeouts = run.getTimeouts();
+        if(!timeouts.isEmpty()) {
+            out.println("\nRules skipped because they ran out of time or stack ("+env.getBudget()+"):");
+            for(RuleTimeout t : timeouts) {
+                out.println("\t"+t);
+            }
+        }
+
+        List<WindowOverflow> overflows = run.getWindowOverflows();
+        if(!overflows.isEmpty()) {
+            out.println("\nStreamed matches that may be cut off by the window (--window="+env.getWindow()+"):");
+            for(WindowOverflow o : overflows) {
+                out.println("\t"+o);
+            }
+        }
+
+        TranslationProfile profile = run.getProfile();
+        if(profile != null) {
+            out.println("\nRule profile:");
+            profile.print(out);
+            if(cl.getOptionValue("P") != null) {
+                FileUtils.writeStringToFile(new File(cl.getOptionValue("P")), profile.toJson(), "UTF-8");
+            }
+        }
+    }
+
+    public static File outputDir(CommandLine cl) throws IOException {
+        String sourcePath = cl.getOptionValue("s");
+        File srcFile = new File(sourcePath);
+        if(cl.hasOption("o"))
+            return new File(cl.getOptionValue("o"));
+        else if(srcFile.isDirectory()) {
+            return new File(srcFile.getCanonicalPath());
+        }
+        else {
+            return new File(new File(sourcePath).getParent());
+        }
+    }
+
+    public static SourceFilter sourceFilter(CommandLine cl) {
+        return new SourceFilter(cl.getOptionValue("I"), cl.getOptionValue("X"), cl.getOptionValue("x"));
+    }
+
+    public static TranslationManifest manifest(CommandLine cl, JTranslateEnvironment env) throws IOException {
+        if(!cl.hasOption("i"))
+            return null;
+        return new TranslationManifest(outputDir(cl), fingerprint(env, cl));
+    }
+
+    /*
+        Translates sources again whenever they change. The environment is reused, so only
+        the changed files are read and translated. A failing file is reported and watching
+        goes on. In a source directory only files passing the source filter are translated.
+        Every batch of changes is a run of its own and reports only its own translations.
+     */
+    public static void watch(final File srcFile, final File outputDir, final String sep, final JTranslateEnvironment env, final CommandLine cl, final TranslationManifest manifest) throws IOException {
+        final SourceFilter filter = srcFile.isDirectory() ? sourceFilter(cl) : null;
+        new SourceWatcher(srcFile).watch(new SourceWatcher.Listener() {
+            public void changed(Iterable<File> files) {
+                TranslationRun run = env.newRun();
+                for(File f : files) {
+                    if(filter != null && !filter.accept(srcFile, f))
+                        continue;
+                    long start = System.nanoTime();
+                    try {
+                        translate(f, outputDir, sep, env, cl, manifest, System.out, run);
+                        System.out.println("\t\t   ("+(System.nanoTime() - start)/1000000+" ms)");
+                    }
+                    catch(Throwable t) {
+                        System.err.println("Could not translate "+f.getPath()+": "+t);
+                    }
+                }
+
+                if(manifest != null) {
+                    try {
+                        manifest.save();
+                    }
+                    catch(IOException e) {
+                        System.err.println("Could not save manifest: "+e);
+                    }
+                }
+
+                try {
+                    report(cl, env, run, System.out);
+                }
+                catch(IOException e) {
+                    System.err.println("Could not write profile: "+e);
+                }
+            }
+        });
 	}
 
+    public static TranslationEngine parseEngine(String name) {
+        for(TranslationEngine e : TranslationEngine.values()) {
+            if(e.name().equalsIgnoreCase(name))
+                return e;
+        }
+        throw new Error("Unknown translation engine '"+name+"'");
+    }
+
+    public static TimeoutPolicy parseTimeoutPolicy(String name) {
+        for(TimeoutPolicy p : TimeoutPolicy.values()) {
+            if(p.name().equalsIgnoreCase(name))
+                return p;
+        }
+        throw new Error("Unknown timeout policy '"+name+"'");
+    }
+
+    /*
+        Translates the files through a TranslationPipeline with threads workers. The log of
+        each file is printed in the order of the files, and the first failing file in that
+        order stops the run, so the log is the same for any number of threads.
+     */
+    public static void translate(Iterable<File> sources, File outputDir, String sep, JTranslateEnvironment env, CommandLine cl, TranslationManifest manifest, int threads, PrintStream log, TranslationRun run) throws IOException, EvalError {
+        TranslationPipeline pipeline = new TranslationPipeline(new File(cl.getOptionValue("s")), outputDir, env, manifest, cl.hasOption("S"), threads, run);
+        try {
+            for(File src : sources) {
+                pipeline.submit(src, log);
+            }
+            pipeline.finish(log);
+        }
+        finally {
+            pipeline.shutdown();
+        }
+    }
+
     public static void translate(File source, File outputDir, String sep, JTranslateEnvironment env, CommandLine cl) throws IOException, EvalError {
-        System.out.println("Translating file: "+source.getCanonicalPath());
+        translate(source, outputDir, sep, env, cl, null, System.out, env.newRun());
+    }
+
+    public static void translate(File source, File outputDir, String sep, JTranslateEnvironment env, CommandLine cl, TranslationManifest manifest, PrintStream log, TranslationRun run) throws IOException, EvalError {
         File srcRoot = new File(cl.getOptionValue("s"));
         String subPath = srcRoot.toURI().relativize(source.toURI()).getPath();
 
         File outputFile = new File(outputDir, subPath);
+        if(manifest != null && manifest.isCurrent(subPath, source, outputFile)) {
+            log.println("Unchanged file: "+source.getCanonicalPath());
+            return;
+        }
+
+        log.println("Translating file: "+source.getCanonicalPath());
         File outputParent = outputFile.getParentFile();
         if(!outputParent.exists())
             outputParent.mkdirs();
         outputFile.createNewFile();
 
-        FileOutputStream fout = new FileOutputStream(outputFile);
-        fout.write(env.translate(source).getBytes());
-        fout.close();
-        System.out.println("\t\t->\t"+outputFile.getPath());
+        long modified = source.lastModified();
+        MessageDigest digest = manifest == null ? null : FileIO.sha1();
+        if(cl.hasOption("S")) {
+            Reader in = FileIO.reader(source, env.getCharset(), digest);
+            Writer out = FileIO.writer(outputFile, env.getCharset());
+            try {
+                env.translate(in, out, source.getPath(), run);
+            }
+            finally {
+                in.close();
+                out.close();
+            }
+        }
+        else {
+            CharSequence text = FileIO.read(source, env.getCharset(), digest);
+            FileIO.write(outputFile, env.translate(text, source.getPath(), run), env.getCharset());
+        }
+        record(manifest, subPath, source, digest, modified, run);
+        log.println("\t\t->\t"+outputFile.getPath());
     }
 
     /*
-        @TODO: find a better way to deal with the trailing slash on diretory paths
+        Records a translated source in the manifest, if any. digest holds the contents read
+        for the translation and modified the modification time from before reading. A
+        source with rules skipped in run is translated again next time.
+     */
+    public static void record(TranslationManifest manifest, String subPath, File source, MessageDigest digest, long modified, TranslationRun run) {
+        if(manifest != null && !run.timedOut(source.getPath()))
+            manifest.update(subPath, FileIO.hex(digest.digest()), source.length(), modified);
+        else if(manifest != null)
+            manifest.remove(subPath);
+    }
+
+    /*
+        Fingerprint for the manifest: the environment's fingerprint, the options that change
+        how files are written, and name, size and modification time of everything on the
+        translator classpath.
+     */
+    public static String fingerprint(JTranslateEnvironment env, CommandLine cl) throws IOException {
+        StringBuilder sb = new StringBuilder(env.fingerprint());
+        sb.append("\nstream=").append(cl.hasOption("S"));
+        stamp(cl.getOptionValue("t").split(";"), sb);
+        return FileIO.hex(FileIO.sha1().digest(sb.toString().getBytes("UTF-8")));
+    }
+
+    /*
+        Appends path, size and modification time of every file below paths, in sorted order
      */
+    public static void stamp(String[] paths, StringBuilder sb) throws IOException {
+        for(String path : paths) {
+            if(path.length() == 0)
+                continue;
+            File f = new File(FilenameUtils.normalize(path));
+            Collection<File> files = f.isDirectory() ? FileUtils.listFiles(f, null, true) : Arrays.asList(f);
+            TreeMap<String, File> sorted = new TreeMap<String, File>();
+            for(File file : files) {
+                sorted.put(file.getCanonicalPath(), file);
+            }
+            for(Map.Entry<String, File> e : sorted.entrySet()) {
+                sb.append('\n').append(e.getKey()).append(' ').append(e.getValue().length()).append(' ').append(e.getValue().lastModified());
+            }
+        }
+    }
+
     public static void loadTranslatorClasses(JTranslateEnvironment env, CommandLine cl) throws IOException, ClassNotFoundException, IllegalAccessException, InstantiationException
+    {
+        env.registerTranslators(translatorLoader(cl));
+    }
+
+    /*
+        Class loader over the --translators paths
+        @TODO: find a better way to deal with the trailing slash on diretory paths
+     */
+    public static URLClassLoader translatorLoader(CommandLine cl) throws IOException
     {
         String tArg = cl.getOptionValue("t");
         tArg = tArg.endsWith(";") ? tArg.substring(0, tArg.length()-1) : tArg;
@@ -148,9 +557,7 @@ public class JTranslate
             urls[i] = new URL("file:"+path);
         }
 
-        URLClassLoader loader = new URLClassLoader(urls);
-
-        env.registerTranslators(loader);
+        return new URLClassLoader(urls);
     }
 
     public static LinkedList<File> getGrammarFiles(String gPath)
@@ -172,16 +579,84 @@ public class JTranslate
         return grammars;
     }
 
+    /*
+        Parses the grammar files concurrently, each with its own tokenizer. The parsed sets
+        are merged in the order of the file paths, so the result doesn't depend on the
+        directory listing or on which file finished first.
+     */
     public static GrammarSet parseGrammarRules(Iterable<File> gFiles) throws IOException, TokenizerException
     {
-        GrammarSet set = new GrammarSet();
+        ArrayList<File> files = new ArrayList<File>();
         for(File f : gFiles) {
-            GrammarParser parser = new GrammarParser(new ReaderSource(f));
-            set.addSet(parser.parse());
+            files.add(f);
+        }
+        Collections.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return a.getPath().compareTo(b.getPath());
+            }
+        });
+
+        GrammarSet set = new GrammarSet();
+        if(files.size() == 1) {
+            set.addSet(new GrammarParser(new ReaderSource(files.get(0))).parse());
+            return set;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors())));
+        LinkedList<Future<GrammarTask>> tasks = new LinkedList<Future<GrammarTask>>();
+        for(File f : files) {
+            tasks.add(pool.submit(new GrammarTask(f)));
+        }
+
+        try {
+            for(Future<GrammarTask> f : tasks) {
+                GrammarTask task = f.get();
+                if(task.error instanceof IOException)
+                    throw (IOException)task.error;
+                else if(task.error instanceof TokenizerException)
+                    throw (TokenizerException)task.error;
+                else if(task.error instanceof RuntimeException)
+                    throw (RuntimeException)task.error;
+                else if(task.error instanceof Error)
+                    throw (Error)task.error;
+                else if(task.error != null)
+                    throw new Error(task.error);
+                set.addSet(task.set);
+            }
+        }
+        catch(InterruptedException e) {
+            throw new IOException("Interrupted while parsing grammar files", e);
+        }
+        catch(ExecutionException e) {
+            throw new Error(e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
         }
 
         return set;
     }
 
+    private static class GrammarTask implements Callable<GrammarTask>
+    {
+        final File file;
+        GrammarSet set;
+        Throwable error;
+
+        GrammarTask(File file) {
+            this.file = file;
+        }
+
+        public GrammarTask call() {
+            try {
+                set = new GrammarParser(new ReaderSource(file)).parse();
+            }
+            catch(Throwable t) {
+                error = t;
+            }
+            return this;
+        }
+    }
+
 }
 
@@ -2,19 +2,40 @@ package jtranslate;
 
 import bsh.EvalError;
 import de.susebox.jtopas.TokenizerException;
+import jtranslate.grammar.FusedPattern;
 import jtranslate.grammar.GrammarManager;
 import jtranslate.grammar.GrammarRule;
 import jtranslate.grammar.GrammarSet;
 import jtranslate.grammar.GrammarType;
+import jtranslate.grammar.RewriteAutomaton;
+import jtranslate.grammar.RewriteRule;
+import jtranslate.grammar.RuleConflict;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
 
 public class JTranslateEnvironment
 {
     protected TranslationManager transManager;
 	protected GrammarManager grammarManager;
     protected GrammarSet set;
+    protected RewriteAutomaton rewriter;
+    protected TranslationEngine engine = TranslationEngine.Sequential;
+    // built on first use, dropped whenever translators or the engine change
+    protected volatile TranslationPlan plan;
+    protected int window = 65536;
+    protected Charset charset = Charset.defaultCharset();
+    protected volatile boolean profiling = false;
 
     public JTranslateEnvironment(GrammarSet set)
     {
@@ -22,21 +43,26 @@ public class JTranslateEnvironment
         grammarManager = new GrammarManager();
         for(GrammarRule g : set.getGrammarRules()) {
             grammarManager.addRule(g.getKey(), g, false);
+            if(g.getType() == GrammarType.TranslationScript) {
+                transManager.registerScript(g);
+            }
         }
 
         grammarManager.compileRules();
+        rewriter = new RewriteAutomaton(set.getRewriteRules());
         this.set = set;
     }
 
 	public void registerTranslator(String key, Translator translator)
 	{
         transManager.register(key, translator);
+        plan = null;
 	}
 
     public void registerTranslator(GrammarRule rule, ClassLoader loader) throws ClassNotFoundException, IllegalAccessException, InstantiationException
     {
-        Translator trans = (Translator)loader.loadClass(rule.getTranslatorName()).newInstance();
-        registerTranslator(rule.getKey(), trans);
+        Class<? extends Translator> type = loader.loadClass(rule.getTranslatorName()).asSubclass(Translator.class);
+        registerTranslator(rule.getKey(), new PerThreadTranslator(type));
     }
 
     public void registerTranslators(ClassLoader loader) throws ClassNotFoundException, InstantiationException, IllegalAccessException {
@@ -47,15 +73,247 @@ public class JTranslateEnvironment
         }
     }
 
+    /*
+        Compiles scripted rules to Translator classes and registers them in place of the
+        BeanShell scripts. Returns a message for every script that still runs through BeanShell.
+     */
+    public LinkedList<String> compileScripts(File cacheDir) throws IOException {
+        return compileScripts(cacheDir, null);
+    }
+
+    /*
+        Scripts are compiled against the classes of translators, null for none
+     */
+    public LinkedList<String> compileScripts(File cacheDir, URLClassLoader translators) throws IOException {
+        ScriptCompiler compiler = new ScriptCompiler(cacheDir, translators);
+        for(GrammarRule rule : grammarManager.getRules()) {
+            if(rule.getType() == GrammarType.TranslationScript && !transManager.hasTranslator(rule.getKey())) {
+                Translator trans = compiler.compile(rule);
+                if(trans != null) {
+                    registerTranslator(rule.getKey(), trans);
+                }
+            }
+        }
+        return compiler.getErrors();
+    }
+
 	public void deRegisterTranslator(String key) {
 		transManager.deRegister(key);
+        plan = null;
 	}
 
+    public void setEngine(TranslationEngine engine) {
+        if(engine != this.engine) {
+            this.engine = engine;
+            plan = null;
+        }
+    }
+
+    /*
+        The rules bound to the translators registered so far, for the current engine. Built
+        once and shared by all threads until a translator is registered or the engine changes.
+     */
+    public TranslationPlan getPlan() {
+        TranslationPlan p = plan;
+        if(p == null) {
+            synchronized(this) {
+                p = plan;
+                if(p == null) {
+                    p = transManager.plan(grammarManager.getRules(), engine == TranslationEngine.Fused);
+                    plan = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    public TranslationEngine getEngine() {
+        return engine;
+    }
+
+    /*
+        A run to collect the conflicts, timeouts and, when profiling, the rule metrics of
+        the translations it is passed to. Translations without a run get a run of their own,
+        whose reports are dropped.
+     */
+    public TranslationRun newRun() {
+        return new TranslationRun(profiling ? new TranslationProfile() : null);
+    }
+
+    /*
+        Rules that kept the fused engine from being used, either for the whole grammar or
+        for individual sources of run.
+     */
+    public LinkedList<RuleConflict> getConflicts(TranslationRun run) {
+        LinkedList<RuleConflict> conflicts = new LinkedList<RuleConflict>();
+        FusedPattern fused = engine == TranslationEngine.Fused ? getPlan().getFused() : null;
+        if(fused != null) {
+            conflicts.addAll(fused.getConflicts());
+        }
+        conflicts.addAll(run.getConflicts());
+        return conflicts;
+    }
+
 	public String translate(File file) throws IOException, EvalError {
-		return transManager.translate(file, set.getRewriteRules(), grammarManager.getRules());
+		return translate(file, newRun());
+	}
+
+	public String translate(File file, TranslationRun run) throws IOException, EvalError {
+		return transManager.translate(file, charset, rewriter, getPlan(), run);
 	}
 
+    /*
+        Translates text already read from a source, name identifies the source the way the
+        path does for translate(File)
+     */
+    public String translate(CharSequence text, String name) throws EvalError {
+        return translate(text, name, newRun());
+    }
+
+    public String translate(CharSequence text, String name, TranslationRun run) throws EvalError {
+        return transManager.translate(text, rewriter, getPlan(), name, run);
+    }
+
+    /*
+        Streaming translation through a sliding window, see TranslationManager. Always uses
+        the sequential engine.
+     */
+    public void translate(Reader in, Writer out) throws IOException, EvalError {
+        transManager.translate(in, out, rewriter, getPlan(), window);
+    }
+
+    /*
+        name identifies the source in diagnostics
+     */
+    public void translate(Reader in, Writer out, String name) throws IOException, EvalError {
+        translate(in, out, name, newRun());
+    }
+
+    public void translate(Reader in, Writer out, String name, TranslationRun run) throws IOException, EvalError {
+        transManager.translate(in, out, rewriter, getPlan(), window, name, run);
+    }
+
+    /*
+        Streaming translation into any Appendable, such as a StringBuilder or CharBuffer.
+        Wrap a CharSequence in a CharSequenceReader to stream it without copying it first.
+     */
+    public void translate(Reader in, Appendable out) throws IOException, EvalError {
+        translate(in, AppendableWriter.wrap(out), "<stream>");
+    }
+
+    /*
+        Translates text into out with the same result as translate(File), scripted rules
+        included. text is read in place, so a CharBuffer over pooled memory needs no copy
+        as a String first. With the sequential engine the last rule's pass is written
+        straight into out, with the fused engine out gets the finished result.
+     */
+    public void translate(CharSequence text, Appendable out) throws IOException, EvalError {
+        translate(text, out, newRun());
+    }
+
+    public void translate(CharSequence text, Appendable out, TranslationRun run) throws IOException, EvalError {
+        transManager.translate(text, rewriter, getPlan(), "<text>", run, out);
+    }
+
+    /*
+        Translates many small texts like translate(CharSequence, Appendable), results in the
+        order of texts. The plan is looked up once and the buffers of a translation are
+        reused for the whole batch.
+     */
+    public List<String> translateAll(Collection<? extends CharSequence> texts) throws EvalError {
+        return translateAll(texts, newRun());
+    }
+
+    public List<String> translateAll(Collection<? extends CharSequence> texts, TranslationRun run) throws EvalError {
+        return transManager.translateAll(texts, rewriter, getPlan(), run);
+    }
+
+    /*
+        Hash over everything in this environment that affects translation output: the compiled
+        rules, rewrite rules, engine, window and charset. Translator classes are not included.
+     */
+    public String fingerprint() {
+        MessageDigest md = FileIO.sha1();
+        TreeMap<String, GrammarRule> rules = new TreeMap<String, GrammarRule>();
+        for(GrammarRule rule : grammarManager.getRules()) {
+            rules.put(rule.getKey(), rule);
+        }
+        for(GrammarRule rule : rules.values()) {
+            update(md, rule.getKey(), rule.getType().name(), rule.getRule(), rule.getTranslatorName(), rule.getScript(), String.valueOf(rule.getMaxSpan()));
+        }
+        for(RewriteRule rr : set.getRewriteRules()) {
+            update(md, rr.getSearch(), rr.getReplace());
+        }
+        update(md, engine.name(), String.valueOf(window), charset.name());
+        return FileIO.hex(md.digest());
+    }
+
+    private static void update(MessageDigest md, String... values) {
+        for(String v : values) {
+            try {
+                md.update(String.valueOf(v).getBytes("UTF-8"));
+            }
+            catch(UnsupportedEncodingException e) {
+                throw new Error(e);
+            }
+            md.update((byte)0);
+        }
+    }
+
+    /*
+        Gives runs made by newRun() from now on a profile to collect per-rule metrics into
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /*
+        Limits the time rules may spend matching on a source, null for no limit
+     */
+    public void setBudget(MatchBudget budget) {
+        transManager.setBudget(budget);
+    }
+
+    public MatchBudget getBudget() {
+        return transManager.getBudget();
+    }
+
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /*
+        See TranslationManager.setStrictWindow
+     */
+    public void setStrictWindow(boolean strictWindow) {
+        transManager.setStrictWindow(strictWindow);
+    }
+
+    public boolean isStrictWindow() {
+        return transManager.isStrictWindow();
+    }
+
+    /*
+        Rewrite rules and class based translation rules only, scripted rules are left out.
+        See translate(CharSequence, Appendable) for the full translation.
+     */
     public String translate(String src) {
-        return transManager.translate(src, set.getRewriteRules(), grammarManager.getRules());
+        return transManager.translate(src, rewriter, getPlan());
     }
 }
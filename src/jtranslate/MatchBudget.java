@@ -0,0 +1,51 @@
+package jtranslate;
+
+/*
+    Time limits for rules. The match budget limits a single search for the next match, the
+    file budget all the time one rule spends on one source. A budget of 0 is unlimited.
+ */
+public class MatchBudget
+{
+    private final long matchNanos;
+    private final long fileNanos;
+    private final TimeoutPolicy policy;
+
+    public MatchBudget(long matchMillis, long fileMillis, TimeoutPolicy policy) {
+        this.matchNanos = matchMillis * 1000000L;
+        this.fileNanos = fileMillis * 1000000L;
+        this.policy = policy;
+    }
+
+    /*
+        Wraps text for one rule on one source, the file budget starts now
+     */
+    public InterruptibleCharSequence guard(CharSequence text) {
+        return guard(text, System.nanoTime());
+    }
+
+    /*
+        Wraps a part of a source for a rule that started on that source at 'started'
+     */
+    public InterruptibleCharSequence guard(CharSequence text, long started) {
+        return new InterruptibleCharSequence(text, matchNanos, fileNanos, started);
+    }
+
+    public long getMatchMillis() {
+        return matchNanos / 1000000L;
+    }
+
+    public long getFileMillis() {
+        return fileNanos / 1000000L;
+    }
+
+    public TimeoutPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public String toString() {
+        return "match "+(matchNanos == 0 ? "unlimited" : getMatchMillis()+" ms")
+            +", file "+(fileNanos == 0 ? "unlimited" : getFileMillis()+" ms")
+            +", "+policy.name().toLowerCase();
+    }
+}
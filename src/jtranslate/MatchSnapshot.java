@@ -0,0 +1,84 @@
+package jtranslate;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+
+/*
+    Match result that copies only the text of the match. Matcher.toMatchResult() copies
+    its whole input unless the input is a String, which is once per match for a CharBuffer
+    or a StringBuilder.
+ */
+class MatchSnapshot implements MatchResult
+{
+    private final int[] starts;
+    private final int[] ends;
+    // text from the first group start to the last group end, at offset base of the input
+    private final String text;
+    private final int base;
+
+    /*
+        Match result of mat's current match, input is the text mat was created for
+     */
+    static MatchResult of(Matcher mat, CharSequence input) {
+        if(input instanceof String)
+            return mat.toMatchResult();
+        return new MatchSnapshot(mat, input, 0);
+    }
+
+    /*
+        Match result of the match in group 'first' of mat, with its groups numbered from
+        there. Used for a pattern wrapped in a lookahead.
+     */
+    static MatchResult of(Matcher mat, CharSequence input, int first) {
+        if(first == 0)
+            return of(mat, input);
+        return new MatchSnapshot(mat, input, first);
+    }
+
+    private MatchSnapshot(Matcher mat, CharSequence input, int first) {
+        int count = mat.groupCount() - first;
+        starts = new int[count+1];
+        ends = new int[count+1];
+        int from = mat.start(first), to = mat.end(first);
+        for(int g = 0; g<=count; g++) {
+            starts[g] = mat.start(first + g);
+            ends[g] = mat.end(first + g);
+            if(starts[g] != -1) {
+                from = Math.min(from, starts[g]);
+                to = Math.max(to, ends[g]);
+            }
+        }
+        text = input.subSequence(from, to).toString();
+        base = from;
+    }
+
+    public int start() {
+        return starts[0];
+    }
+
+    public int start(int group) {
+        return starts[group];
+    }
+
+    public int end() {
+        return ends[0];
+    }
+
+    public int end(int group) {
+        return ends[group];
+    }
+
+    public String group() {
+        return group(0);
+    }
+
+    public String group(int group) {
+        if(starts[group] == -1)
+            return null;
+        return text.substring(starts[group] - base, ends[group] - base);
+    }
+
+    public int groupCount() {
+        return starts.length - 1;
+    }
+}
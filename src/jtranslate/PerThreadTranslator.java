@@ -0,0 +1,75 @@
+package jtranslate;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.regex.MatchResult;
+
+/*
+    Gives every thread its own instance of a translator class. Translator classes loaded
+    from the translators path may keep state between calls, so they are never shared
+    between threads translating different files.
+
+    Classes implementing StreamingTranslator append their replacement directly, the others
+    have their returned string appended.
+ */
+public class PerThreadTranslator implements StreamingTranslator
+{
+    private Class<? extends Translator> type;
+    private ThreadLocal<Translator> instances = new ThreadLocal<Translator>();
+
+    public PerThreadTranslator(Class<? extends Translator> type) throws IllegalAccessException, InstantiationException {
+        this.type = type;
+        instances.set(newInstance(type));
+    }
+
+    public String translate(MatchResult mat) {
+        return instance().translate(mat);
+    }
+
+    public void translate(MatchResult mat, StringBuilder out) {
+        Translator t = instance();
+        if(t instanceof StreamingTranslator)
+            ((StreamingTranslator)t).translate(mat, out);
+        else
+            out.append(t.translate(mat));
+    }
+
+    private Translator instance() {
+        Translator t = instances.get();
+        if(t == null) {
+            try {
+                t = newInstance(type);
+            }
+            catch(InstantiationException e) {
+                throw new Error(e);
+            }
+            catch(IllegalAccessException e) {
+                throw new Error(e);
+            }
+            instances.set(t);
+        }
+        return t;
+    }
+
+    public Class<? extends Translator> getType() {
+        return type;
+    }
+
+    /*
+        Instance made with the public no-arg constructor, failing like Class.newInstance()
+     */
+    static Translator newInstance(Class<? extends Translator> type) throws IllegalAccessException, InstantiationException {
+        try {
+            return type.getDeclaredConstructor().newInstance();
+        }
+        catch(NoSuchMethodException e) {
+            throw new InstantiationException(type.getName()+" has no constructor without arguments");
+        }
+        catch(InvocationTargetException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            if(e.getCause() instanceof Error)
+                throw (Error)e.getCause();
+            throw new Error(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package jtranslate;
+
+import jtranslate.grammar.RewriteAutomaton;
+
+import java.io.Writer;
+
+/*
+    Streaming stage for the rewrite rules, the literal search and replace pairs of the
+    grammar's @rewrite blocks. Their longest search string is the span, so an occurrence
+    that starts before the end of the window always lies inside the buffered text. No
+    text is ever left for a later window, and the end of the window needs no special case:
+    each window is consumed up to its limit, or up to the end of an occurrence running past
+    it.
+ */
+public class RewriteWriter extends WindowedWriter
+{
+    private RewriteAutomaton rewriter;
+    private RuleMetrics metrics;
+
+    public RewriteWriter(Writer out, RewriteAutomaton rewriter, int window) {
+        this(out, rewriter, window, null);
+    }
+
+    /*
+        metrics may be null when not profiling
+     */
+    public RewriteWriter(Writer out, RewriteAutomaton rewriter, int window, RuleMetrics metrics) {
+        super(out, rewriter.getMaxLength(), window);
+        this.rewriter = rewriter;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected int translate(CharSequence text, int from, int limit, boolean eof, StringBuilder out) {
+        if(metrics == null)
+            return rewriter.rewrite(text, from, limit, out);
+
+        long start = System.nanoTime();
+        int committed = rewriter.rewrite(text, from, limit, out);
+        metrics.lap(start);
+        metrics.scanned(committed - from);
+        return committed;
+    }
+}
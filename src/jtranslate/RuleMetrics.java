@@ -0,0 +1,70 @@
+package jtranslate;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Runtime counters of a single rule. Scan time is the time spent searching the source
+    for matches, translate time the time spent in the rule's translator or script. Sizes
+    are counted in characters. Counters are updated without locking and may be read while
+    translations are running.
+ */
+public class RuleMetrics
+{
+    private final String key;
+    private final AtomicLong scanNanos = new AtomicLong();
+    private final AtomicLong charsScanned = new AtomicLong();
+    private final AtomicLong matches = new AtomicLong();
+    private final AtomicLong translateNanos = new AtomicLong();
+    private final AtomicLong replacementChars = new AtomicLong();
+
+    public RuleMetrics(String key) {
+        this.key = key;
+    }
+
+    /*
+        Adds the time since 'since' to the scan time and returns the current time
+     */
+    public long lap(long since) {
+        long now = System.nanoTime();
+        scanNanos.addAndGet(now - since);
+        return now;
+    }
+
+    public void scanned(int chars) {
+        charsScanned.addAndGet(chars);
+    }
+
+    public void translated(long nanos, int replacementLength) {
+        matches.incrementAndGet();
+        translateNanos.addAndGet(nanos);
+        replacementChars.addAndGet(replacementLength);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getScanNanos() {
+        return scanNanos.get();
+    }
+
+    public long getCharsScanned() {
+        return charsScanned.get();
+    }
+
+    public long getMatches() {
+        return matches.get();
+    }
+
+    public long getTranslateNanos() {
+        return translateNanos.get();
+    }
+
+    public long getReplacementChars() {
+        return replacementChars.get();
+    }
+
+    public long getTotalNanos() {
+        return getScanNanos() + getTranslateNanos();
+    }
+}
@@ -0,0 +1,41 @@
+package jtranslate;
+
+/*
+    A rule that ran out of its time budget on a source. The offset is in the text the rule
+    was applied to, after the rewrite rules and earlier rules.
+ */
+public class RuleTimeout
+{
+    private String rule;
+    private String source;
+    private long offset;
+    private String budget;
+
+    public RuleTimeout(String rule, String source, long offset, String budget) {
+        this.rule = rule;
+        this.source = source;
+        this.offset = offset;
+        this.budget = budget;
+    }
+
+    public String getRule() {
+        return rule;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public String getBudget() {
+        return budget;
+    }
+
+    @Override
+    public String toString() {
+        return "rule '"+rule+"' exceeded its "+budget+" budget in "+source+" at offset "+offset;
+    }
+}
@@ -0,0 +1,17 @@
+package jtranslate;
+
+public class RuleTimeoutError extends Error
+{
+    private static final long serialVersionUID = 1L;
+
+    private RuleTimeout timeout;
+
+    public RuleTimeoutError(RuleTimeout timeout) {
+        super(timeout.toString());
+        this.timeout = timeout;
+    }
+
+    public RuleTimeout getTimeout() {
+        return timeout;
+    }
+}
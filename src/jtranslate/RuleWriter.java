@@ -0,0 +1,195 @@
+package jtranslate;
+
+import bsh.EvalError;
+import jtranslate.grammar.GrammarRule;
+import jtranslate.grammar.SpanEstimator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    Streaming stage for a single translation rule. Rules without a declared or inferred
+    maximum match length use the window size as their span.
+
+    The end of the window is not the end of the source, so a match that reached it, or
+    needed it like '$' or a lookahead does, is left for the next window. When matching
+    there reaches the end of the window again, a WindowOverflow is recorded and the match
+    is translated as it is, or the translation fails with a strict window.
+
+    When the rule runs out of its time budget or stack with the skip policy, the text of that window
+    and everything after it passes through unchanged. Text already written keeps the
+    rule's earlier replacements.
+ */
+public class RuleWriter extends WindowedWriter
+{
+    private TranslationPlan plan;
+    private int index;
+    private GrammarRule rule;
+    private TranslationManager manager;
+    private String name;
+    private TranslationRun run;
+    private MatchBudget budget;
+    private long started;
+    private boolean skipped = false;
+    private boolean strict;
+    private boolean overflowed = false;
+    // source offset of the text last left for the next window
+    private long deferred = -1;
+    private Matcher matcher;
+
+    /*
+        Translates with the rule at index in plan
+     */
+    public RuleWriter(Writer out, TranslationPlan plan, int index, TranslationManager manager, int window) {
+        this(out, plan, index, manager, window, "<stream>", new TranslationRun());
+    }
+
+    /*
+        name identifies the source in timeout diagnostics, which are recorded in run
+     */
+    public RuleWriter(Writer out, TranslationPlan plan, int index, TranslationManager manager, int window, String name, TranslationRun run) {
+        super(out, plan.getRule(index).getMaxSpan() == SpanEstimator.UNBOUNDED ? window : plan.getRule(index).getMaxSpan(), window);
+        this.plan = plan;
+        this.index = index;
+        this.rule = plan.getRule(index);
+        this.manager = manager;
+        this.name = name;
+        this.run = run;
+        this.budget = manager.getBudget();
+        this.strict = manager.isStrictWindow();
+        this.started = System.nanoTime();
+    }
+
+    @Override
+    protected int translate(CharSequence text, int from, int limit, boolean eof, StringBuilder out) throws IOException {
+        if(skipped) {
+            out.append(text, from, limit);
+            return limit;
+        }
+
+        int mark = out.length();
+        try {
+            return match(text, from, limit, eof, out);
+        }
+        catch(InterruptibleCharSequence.Timeout t) {
+            manager.timedOut(budget, rule, name, offset + t.getOffset(), t, run);
+            skipped = true;
+            out.setLength(mark);
+            out.append(text, from, limit);
+            return limit;
+        }
+        catch(StackOverflowError e) {
+            manager.overflowed(budget, rule, name, offset + from, run);
+            skipped = true;
+            out.setLength(mark);
+            out.append(text, from, limit);
+            return limit;
+        }
+    }
+
+    private int match(CharSequence text, int from, int limit, boolean eof, StringBuilder out) throws IOException {
+        RuleMetrics metrics = run.metrics(plan.getKey(index));
+        long time = metrics == null ? 0 : System.nanoTime();
+        // the lookahead pattern only starts matches before limit, reading past the text then means it is undecided
+        Pattern lookahead = rule.getLookaheadPattern();
+        CharSequence input = eof || lookahead == null ? text : new UnfinishedText(text);
+        InterruptibleCharSequence guarded = budget == null ? null : budget.guard(input, started);
+        Matcher mat = matcher(lookahead == null ? rule.getPattern() : lookahead, guarded == null ? input : guarded);
+        int group = lookahead == null ? 0 : 1;
+        int end = lookahead == null ? text.length() : limit;
+
+        int pos = from;
+        int next = from;
+        int committed = -1;
+        while(next <= end) {
+            mat.region(next, end);
+            try {
+                if(!find(mat, guarded) || mat.start() >= limit)
+                    break;
+            }
+            catch(UnfinishedText.More e) {
+                if(pos > from || offset + from != deferred) {
+                    deferred = offset + pos;
+                    committed = pos;
+                    break;
+                }
+                overflowed(pos);
+                // translate this window as if the source ended with it
+                guarded = budget == null ? null : budget.guard(text, started);
+                mat = matcher(mat.pattern(), guarded == null ? text : guarded);
+                continue;
+            }
+
+            if(metrics != null)
+                metrics.lap(time);
+            out.append(text, pos, mat.start());
+            try {
+                manager.replacement(plan, index, MatchSnapshot.of(mat, text, group), out, metrics);
+            }
+            catch(EvalError e) {
+                throw new ScriptIOException(e);
+            }
+            pos = mat.end(group);
+            // like Matcher.find(), go on after the match, or one further after an empty one
+            next = pos == mat.start() ? pos+1 : pos;
+            if(metrics != null)
+                time = System.nanoTime();
+        }
+
+        if(committed == -1)
+            committed = Math.max(pos, limit);
+        if(metrics != null) {
+            metrics.lap(time);
+            metrics.scanned(committed - from);
+        }
+        out.append(text, pos, committed);
+        return committed;
+    }
+
+    private Matcher matcher(Pattern pattern, CharSequence input) {
+        if(matcher == null || matcher.pattern() != pattern)
+            matcher = pattern.matcher(input);
+        else
+            matcher.reset(input);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        return matcher;
+    }
+
+    /*
+        Called when the text from 'at' was already left for the next window once and matching
+        there still reaches the end of the window. Recorded once per source.
+     */
+    private void overflowed(int at) throws IOException {
+        WindowOverflow overflow = new WindowOverflow(rule.getKey(), name, offset + at, window);
+        if(strict)
+            throw new IOException(overflow+", translate with a larger --window");
+        if(!overflowed)
+            run.overflowed(overflow);
+        overflowed = true;
+    }
+
+    private static boolean find(Matcher mat, InterruptibleCharSequence guarded) {
+        if(guarded != null)
+            guarded.startMatch();
+        return mat.find();
+    }
+
+    /*
+        Carries script errors through the Writer interface
+     */
+    static class ScriptIOException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        ScriptIOException(EvalError e) {
+            super(e.getMessage(), e);
+        }
+
+        EvalError getEvalError() {
+            return (EvalError)getCause();
+        }
+    }
+}
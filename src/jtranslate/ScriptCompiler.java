@@ -0,0 +1,214 @@
+package jtranslate;
+
+import jtranslate.grammar.GrammarRule;
+import org.apache.commons.io.FileUtils;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+    Compiles the scripts of TranslationScript rules to Translator classes with the system
+    java compiler. Class files are kept in a cache directory and named after a hash of the
+    script, so unchanged scripts are loaded straight from the cache on later runs.
+    Scripts that aren't valid java (BeanShell allows loose typing) can't be compiled and
+    keep running through BeanShell. Their compiler errors are cached next to the class files,
+    so they aren't compiled again on every run either. The errors are only reused with the
+    same JDK and the same classpath and translator files, a script that failed because of
+    its environment is compiled again once that changed.
+
+    Scripts are compiled against the translator classpath and loaded by a class loader below
+    the one of the translator classes, so they can use those classes.
+
+    The script becomes the body of the translate method and the generated class has no
+    fields, so a single instance is shared by all threads.
+ */
+public class ScriptCompiler
+{
+    // bump when the generated source changes so old cache entries are not picked up
+    private static final String VERSION = "1";
+    private static final String PREFIX = "JTranslateScript_";
+    // extension of the file that holds the errors of a script that did not compile
+    private static final String FAILED = ".failed";
+    // first line of a .failed file, followed by the hash of the compile environment
+    private static final String ENVIRONMENT = "environment ";
+
+    private File cacheDir;
+    private URLClassLoader loader;
+    private String classpath;
+    private String environment;
+    private LinkedList<String> errors = new LinkedList<String>();
+
+    public ScriptCompiler(File cacheDir) throws IOException {
+        this(cacheDir, null);
+    }
+
+    /*
+        translators loads the translator classes, null for none
+     */
+    public ScriptCompiler(File cacheDir, URLClassLoader translators) throws IOException {
+        if(!cacheDir.exists() && !cacheDir.mkdirs())
+            throw new IOException("Can not create script cache directory "+cacheDir.getPath());
+        this.cacheDir = cacheDir;
+        ClassLoader parent = translators == null ? Translator.class.getClassLoader() : translators;
+        this.loader = new URLClassLoader(new URL[]{ cacheDir.toURI().toURL() }, parent);
+
+        StringBuilder sb = new StringBuilder(System.getProperty("java.class.path"));
+        sb.append(File.pathSeparator).append(codeSource());
+        if(translators != null) {
+            for(URL url : translators.getURLs()) {
+                File f = FileUtils.toFile(url);
+                if(f != null)
+                    sb.append(File.pathSeparator).append(f.getPath());
+            }
+        }
+        this.classpath = sb.toString();
+        this.environment = environment(classpath);
+    }
+
+    /*
+        Returns null when the script could not be compiled, see getErrors()
+     */
+    public Translator compile(GrammarRule rule) throws IOException {
+        ScriptTranslator script = new ScriptTranslator(rule);
+        String className = className(rule.getScript());
+        File classFile = new File(cacheDir, className+".class");
+        File failedFile = new File(cacheDir, className+FAILED);
+
+        if(!classFile.exists()) {
+            List<String> failed = failedFile.exists() ? FileUtils.readLines(failedFile, "UTF-8") : null;
+            if(failed != null && !failed.isEmpty() && failed.get(0).equals(ENVIRONMENT+environment)) {
+                for(String line : failed.subList(1, failed.size()))
+                    errors.add(rule.getKey()+": "+line);
+                return null;
+            }
+            if(!javac(rule.getKey(), className, source(className, script), failedFile))
+                return null;
+            failedFile.delete();
+        }
+
+        try {
+            return PerThreadTranslator.newInstance(loader.loadClass(className).asSubclass(Translator.class));
+        }
+        catch(ClassNotFoundException e) {
+            errors.add(rule.getKey()+": "+e);
+        }
+        catch(InstantiationException e) {
+            errors.add(rule.getKey()+": "+e);
+        }
+        catch(IllegalAccessException e) {
+            errors.add(rule.getKey()+": "+e);
+        }
+        return null;
+    }
+
+    public LinkedList<String> getErrors() {
+        return errors;
+    }
+
+    public static String className(String script) {
+        try {
+            MessageDigest md = FileIO.sha1();
+            md.update(VERSION.getBytes("UTF-8"));
+            return PREFIX+FileIO.hex(md.digest(script.getBytes("UTF-8")));
+        }
+        catch(UnsupportedEncodingException e) {
+            throw new Error(e);
+        }
+    }
+
+    public static String source(String className, ScriptTranslator script) {
+        return script.getImports().trim()+"\n\n"
+            +"public class "+className+" implements jtranslate.Translator\n"
+            +"{\n"
+            +"    public String translate(java.util.regex.MatchResult match)\n"
+            +"    {\n"
+            +script.getBody()+"\n"
+            +"    }\n"
+            +"}\n";
+    }
+
+    /*
+        Compiles source into the cache directory. Errors of a source that doesn't compile are
+        written to failedFile as well.
+     */
+    private boolean javac(String key, String className, String source, File failedFile) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if(compiler == null) {
+            errors.add(key+": no java compiler available, a JDK is required to compile scripts");
+            return false;
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        Boolean ok = compiler.getTask(null, fileManager, diagnostics,
+                Arrays.asList("-d", cacheDir.getPath(), "-classpath", classpath, "-sourcepath", "", "-implicit:none", "-nowarn"),
+                null, Arrays.asList(new SourceFile(className, source))).call();
+        fileManager.close();
+
+        if(!ok) {
+            List<String> lines = new LinkedList<String>();
+            lines.add(ENVIRONMENT+environment);
+            for(Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                if(d.getKind() == Diagnostic.Kind.ERROR) {
+                    // one line per error, so the errors can be read back from failedFile
+                    lines.add("line "+d.getLineNumber()+": "+d.getMessage(null).replaceAll("\\s*\n\\s*", "; "));
+                }
+            }
+            for(String line : lines.subList(1, lines.size()))
+                errors.add(key+": "+line);
+            FileUtils.writeLines(failedFile, "UTF-8", lines);
+        }
+        return ok;
+    }
+
+    /*
+        Hash of the JDK, the classpath and the size and modification time of every file on
+        it, the things besides the script that decide whether it compiles
+     */
+    private static String environment(String classpath) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(System.getProperty("java.home")).append('\n').append(System.getProperty("java.version")).append('\n').append(classpath);
+        JTranslate.stamp(classpath.split(File.pathSeparator), sb);
+        return FileIO.hex(FileIO.sha1().digest(sb.toString().getBytes("UTF-8")));
+    }
+
+    private static String codeSource() {
+        try {
+            return new File(Translator.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        }
+        catch(URISyntaxException e) {
+            return "";
+        }
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject
+    {
+        private String source;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///"+className+Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+}
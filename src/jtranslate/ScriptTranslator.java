@@ -0,0 +1,94 @@
+package jtranslate;
+
+import bsh.BshMethod;
+import bsh.EvalError;
+import bsh.Interpreter;
+import jtranslate.grammar.GrammarRule;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    BeanShell script of a TranslationScript rule, parsed once into a method that takes
+    "match" as its only argument. Leading import statements are evaluated once in the
+    interpreter's global namespace instead of on every call. Each thread gets its own
+    interpreter, since a bsh.Interpreter can't be shared between threads.
+ */
+public class ScriptTranslator
+{
+    public static final Pattern Imports = Pattern.compile("\\A(\\s*import\\s+(static\\s+)?[\\w.]+(\\.\\*)?\\s*;)+");
+    private static final String METHOD = "jtranslate_script";
+
+    private String key;
+    private String imports;
+    private String body;
+    private ThreadLocal<Compiled> compiled = new ThreadLocal<Compiled>();
+
+    public ScriptTranslator(GrammarRule rule) {
+        this(rule.getKey(), rule.getScript());
+    }
+
+    public ScriptTranslator(String key, String script) {
+        this.key = key;
+        Matcher m = Imports.matcher(script);
+        if(m.find()) {
+            imports = m.group();
+            body = script.substring(m.end());
+        }
+        else {
+            imports = "";
+            body = script;
+        }
+    }
+
+    public String translate(MatchResult match) throws EvalError {
+        Compiled c = compiled.get();
+        if(c == null) {
+            c = compile();
+            compiled.set(c);
+        }
+
+        Object result = c.method.invoke(new Object[]{ match }, c.interpreter);
+        if(!(result instanceof String))
+            throw new Error("Script for '"+key+"' must return a String!");
+
+        return (String)result;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getImports() {
+        return imports;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    private Compiled compile() throws EvalError {
+        Interpreter i = new Interpreter();
+        if(imports.length() > 0)
+            i.eval(imports);
+        i.eval(METHOD+"(match) {\n"+body+"\n}");
+
+        for(BshMethod m : i.getNameSpace().getMethods()) {
+            if(m.getName().equals(METHOD))
+                return new Compiled(i, m);
+        }
+        throw new Error("Could not compile script for '"+key+"'");
+    }
+
+    private static class Compiled
+    {
+        final Interpreter interpreter;
+        final BshMethod method;
+
+        Compiled(Interpreter interpreter, BshMethod method) {
+            this.interpreter = interpreter;
+            this.method = method;
+        }
+    }
+}
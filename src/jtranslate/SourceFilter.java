@@ -0,0 +1,132 @@
+package jtranslate;
+
+import java.io.File;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Decides which files below a source directory are translated, from --include, --exclude
+    and --extensions. Only the path is looked at, so filtered files are never opened.
+
+    Globs use the syntax of FileSystem.getPathMatcher. A glob containing '/' is matched
+    against the path relative to the source directory, any other glob against the file
+    name alone, so "*.class" skips class files at any depth. A directory matching an
+    exclude glob is not walked at all.
+ */
+public class SourceFilter
+{
+    private List<PathMatcher> includePaths = new ArrayList<PathMatcher>();
+    private List<PathMatcher> includeNames = new ArrayList<PathMatcher>();
+    private List<PathMatcher> excludePaths = new ArrayList<PathMatcher>();
+    private List<PathMatcher> excludeNames = new ArrayList<PathMatcher>();
+    private Set<String> extensions;
+
+    /*
+        All arguments are comma separated lists, null for no filter of that kind
+     */
+    public SourceFilter(String includes, String excludes, String extensions) {
+        FileSystem fs = FileSystems.getDefault();
+        add(fs, includes, includePaths, includeNames);
+        add(fs, excludes, excludePaths, excludeNames);
+        if(extensions != null) {
+            this.extensions = new HashSet<String>();
+            for(String ext : split(extensions)) {
+                this.extensions.add((ext.startsWith(".") ? ext.substring(1) : ext).toLowerCase());
+            }
+        }
+    }
+
+    /*
+        True when the file at path, relative to the source directory and separated by '/',
+        is translated
+     */
+    public boolean accept(String path) {
+        String name = name(path);
+        if(extensions != null && !extensions.contains(extension(name)))
+            return false;
+        if(matches(excludePaths, excludeNames, path, name))
+            return false;
+        return (includePaths.isEmpty() && includeNames.isEmpty()) || matches(includePaths, includeNames, path, name);
+    }
+
+    /*
+        True when the directory at path, relative to the source directory, is walked
+     */
+    public boolean enter(String path) {
+        return !matches(excludePaths, excludeNames, path, name(path));
+    }
+
+    /*
+        accept() for a file anywhere below root
+     */
+    public boolean accept(File root, File file) {
+        return accept(root.toURI().relativize(file.toURI()).getPath());
+    }
+
+    private static boolean matches(List<PathMatcher> paths, List<PathMatcher> names, String path, String name) {
+        FileSystem fs = FileSystems.getDefault();
+        if(!paths.isEmpty()) {
+            Path p = fs.getPath(path);
+            for(PathMatcher m : paths) {
+                if(m.matches(p))
+                    return true;
+            }
+        }
+        if(!names.isEmpty()) {
+            Path n = fs.getPath(name);
+            for(PathMatcher m : names) {
+                if(m.matches(n))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static void add(FileSystem fs, String globs, List<PathMatcher> paths, List<PathMatcher> names) {
+        if(globs == null)
+            return;
+        for(String glob : split(globs)) {
+            if(glob.indexOf('/') != -1)
+                paths.add(fs.getPathMatcher("glob:"+glob));
+            else
+                names.add(fs.getPathMatcher("glob:"+glob));
+        }
+    }
+
+    /*
+        Splits at commas outside of braces, which keeps globs like *.{java,cs} whole
+     */
+    private static List<String> split(String list) {
+        List<String> parts = new ArrayList<String>();
+        int depth = 0, start = 0;
+        for(int i = 0; i<=list.length(); i++) {
+            char c = i < list.length() ? list.charAt(i) : ',';
+            if(c == '{')
+                depth++;
+            else if(c == '}')
+                depth = Math.max(0, depth-1);
+            else if(c == ',' && depth == 0) {
+                String part = list.substring(start, i).trim();
+                if(part.length() > 0)
+                    parts.add(part);
+                start = i+1;
+            }
+        }
+        return parts;
+    }
+
+    private static String name(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot == -1 ? "" : name.substring(dot + 1).toLowerCase();
+    }
+}
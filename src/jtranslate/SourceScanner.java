@@ -0,0 +1,141 @@
+package jtranslate;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+    The files below a source directory that pass a SourceFilter, in the order of their
+    sorted paths. Directories are listed in parallel on a work-stealing pool: listing a
+    directory forks the listing of its subdirectories. Iterating only waits for the
+    listing of the directory it is about to enter, so files can go to translation while
+    the rest of the tree is still being walked.
+
+    Filters are applied to names while listing, excluded directories are never listed and
+    filtered files are never opened. Directories that can't be listed are skipped.
+ */
+public class SourceScanner implements Iterable<File>
+{
+    private final File root;
+    private final SourceFilter filter;
+    private final ForkJoinPool pool;
+
+    public SourceScanner(File root, SourceFilter filter, int threads) {
+        this.root = root;
+        this.filter = filter;
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+    }
+
+    /*
+        Starts the walk, every iterator walks the tree again
+     */
+    public Iterator<File> iterator() {
+        Listing top = new Listing(root, "");
+        pool.execute(top);
+        return new Walk(top);
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /*
+        The accepted files and walked subdirectories of a directory, sorted by name. A
+        subdirectory has its Listing at the same index, files have null there.
+     */
+    private class Listing extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        final File dir;
+        final String path;
+        File[] entries = new File[0];
+        Listing[] subdirs = new Listing[0];
+
+        Listing(File dir, String path) {
+            this.dir = dir;
+            this.path = path;
+        }
+
+        protected void compute() {
+            File[] files = dir.listFiles();
+            if(files == null)
+                return;
+            Arrays.sort(files);
+
+            ArrayList<File> kept = new ArrayList<File>(files.length);
+            ArrayList<Listing> subs = new ArrayList<Listing>(files.length);
+            for(File f : files) {
+                String p = path.length() == 0 ? f.getName() : path+"/"+f.getName();
+                if(f.isDirectory()) {
+                    if(!filter.enter(p))
+                        continue;
+                    Listing sub = new Listing(f, p);
+                    sub.fork();
+                    kept.add(f);
+                    subs.add(sub);
+                }
+                else if(filter.accept(p)) {
+                    kept.add(f);
+                    subs.add(null);
+                }
+            }
+            subdirs = subs.toArray(new Listing[subs.size()]);
+            entries = kept.toArray(new File[kept.size()]);
+        }
+    }
+
+    /*
+        Depth first through the listings, joining each one before it is entered
+     */
+    private static class Walk implements Iterator<File>
+    {
+        private LinkedList<Listing> listings = new LinkedList<Listing>();
+        private LinkedList<Integer> positions = new LinkedList<Integer>();
+        private File next;
+
+        Walk(Listing top) {
+            enter(top);
+        }
+
+        public boolean hasNext() {
+            while(next == null && !listings.isEmpty()) {
+                Listing l = listings.getLast();
+                int i = positions.removeLast();
+                if(i == l.entries.length) {
+                    listings.removeLast();
+                    continue;
+                }
+                positions.addLast(i+1);
+                if(l.subdirs[i] != null)
+                    enter(l.subdirs[i]);
+                else
+                    next = l.entries[i];
+            }
+            return next != null;
+        }
+
+        public File next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            File f = next;
+            next = null;
+            return f;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void enter(Listing l) {
+            l.join();
+            listings.addLast(l);
+            positions.addLast(0);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package jtranslate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Watches a source tree for created and modified files. Directories created while
+    watching are registered as well, and the files already inside them are reported.
+    Events arriving within DEBOUNCE_MILLIS of each other are collected into one batch,
+    so an editor writing a file in several steps only triggers one translation.
+ */
+public class SourceWatcher
+{
+    public static final long DEBOUNCE_MILLIS = 50;
+
+    public interface Listener
+    {
+        void changed(Iterable<File> files);
+    }
+
+    private WatchService service;
+    private Map<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+    private Path only;
+
+    /*
+        root may be a directory, which is watched recursively, or a single file
+     */
+    public SourceWatcher(File root) throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        Path path = root.toPath().toAbsolutePath();
+        if(Files.isDirectory(path)) {
+            registerAll(path, null);
+        }
+        else {
+            only = path;
+            register(path.getParent());
+        }
+    }
+
+    /*
+        Blocks and reports changes until the thread is interrupted
+     */
+    public void watch(Listener listener) throws IOException {
+        try {
+            while(true) {
+                LinkedHashSet<File> changed = new LinkedHashSet<File>();
+                WatchKey key = service.take();
+                while(key != null) {
+                    collect(key, changed);
+                    key = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if(!changed.isEmpty()) {
+                    listener.changed(changed);
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            service.close();
+        }
+    }
+
+    private void collect(WatchKey key, LinkedHashSet<File> changed) throws IOException {
+        Path dir = dirs.get(key);
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null)
+                continue;
+
+            Path path = dir.resolve((Path)event.context());
+            if(only != null && !path.equals(only))
+                continue;
+
+            if(Files.isDirectory(path)) {
+                if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                    registerAll(path, changed);
+            }
+            else if(Files.exists(path)) {
+                changed.add(path.toFile());
+            }
+        }
+
+        if(!key.reset())
+            dirs.remove(key);
+    }
+
+    private void registerAll(Path root, final LinkedHashSet<File> found) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if(found != null)
+                    found.add(file.toFile());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path dir) throws IOException {
+        WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        dirs.put(key, dir);
+    }
+}
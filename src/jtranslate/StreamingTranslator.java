@@ -0,0 +1,14 @@
+package jtranslate;
+
+import java.util.regex.MatchResult;
+
+/*
+    Translator that appends its replacement to the output instead of returning it, so no
+    string is built per match. The engine prefers this method when a translator implements
+    it; translate(MatchResult) is still used where a replacement string is needed. Extend
+    AbstractStreamingTranslator to only write the appending method.
+ */
+public interface StreamingTranslator extends Translator
+{
+    void translate(MatchResult mat, StringBuilder out);
+}
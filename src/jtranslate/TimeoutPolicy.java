@@ -0,0 +1,12 @@
+package jtranslate;
+
+/*
+    What happens when a rule runs out of its time budget on a source: Abort stops the
+    translation with a RuleTimeoutError, Skip leaves the source untranslated by that rule,
+    reports it and goes on.
+ */
+public enum TimeoutPolicy
+{
+    Abort,
+    Skip
+}
@@ -0,0 +1,332 @@
+package jtranslate;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Long running translation server. Grammars and translator classes are loaded once per
+    set of options and kept in an EnvironmentCache, so a request only pays for the
+    translation itself.
+
+    The daemon listens on the loopback interface only. On start it writes a random token
+    to tokenFile(port), readable by its owner only, and answers only requests that send
+    this token, so other local users can't have it read or write files. Every connection
+    carries one request, written as lines of UTF-8 text:
+
+        token <token>       the daemon's token, always the first line
+        cwd <directory>     directory relative paths in the arguments are resolved against
+        arg <argument>      one command line argument, repeated
+        run                 translate the sources named by the arguments
+        text <length>       followed by <length> characters of source, translated like a
+                            file with the grammar and translators named by the arguments
+
+    and answered with:
+
+        out <line>          a line of log output
+        err <line>          a line of error output
+        text <length>       followed by <length> characters of translated text
+        exit <code>         the request is done, 0 on success
+ */
+public class TranslationDaemon
+{
+    public static final int DEFAULT_PORT = 17431;
+    public static final String CHARSET = "UTF-8";
+
+    private static final String[] PATH_OPTIONS = { "g", "G", "s", "o", "t", "c", "P" };
+
+    private int port;
+    private String token;
+    private EnvironmentCache cache = new EnvironmentCache();
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    public TranslationDaemon(int port) {
+        this.port = port;
+    }
+
+    /*
+        Accepts requests until the process is stopped
+     */
+    public void serve() throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        File tokenFile = tokenFile(port);
+        token = newToken();
+        writeToken(tokenFile, token);
+        tokenFile.deleteOnExit();
+        System.out.println("Translation daemon listening on "+server.getLocalSocketAddress()+", token in "+tokenFile.getPath());
+        try {
+            while(true) {
+                final Socket socket = server.accept();
+                executor.execute(new Runnable() {
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            }
+        }
+        finally {
+            server.close();
+            executor.shutdownNow();
+        }
+    }
+
+    public EnvironmentCache getCache() {
+        return cache;
+    }
+
+    /*
+        File holding the token of the daemon on port, in the user's home directory
+     */
+    public static File tokenFile(int port) {
+        return new File(System.getProperty("user.home"), ".jtranslate-daemon-"+port+".token");
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return FileIO.hex(bytes);
+    }
+
+    /*
+        Creates the file readable and writable by its owner only before the token is
+        written to it. A file left by an earlier daemon is replaced.
+     */
+    private static void writeToken(File file, String token) throws IOException {
+        Path path = file.toPath();
+        Files.deleteIfExists(path);
+        if(path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        else {
+            Files.createFile(path);
+            if(!(file.setReadable(false, false) && file.setReadable(true, true) && file.setWritable(false, false) && file.setWritable(true, true)))
+                throw new IOException("Could not restrict access to "+file.getPath());
+        }
+        Files.write(path, token.getBytes(CHARSET));
+    }
+
+    private boolean authorized(String line) throws IOException {
+        if(line == null || !line.startsWith("token "))
+            return false;
+        // compares in constant time, so the token can't be guessed from response times
+        return MessageDigest.isEqual(line.substring(6).getBytes(CHARSET), token.getBytes(CHARSET));
+    }
+
+    private void handle(Socket socket) {
+        try {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), CHARSET));
+                Response response = new Response(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), CHARSET)));
+                PrintStream out = new PrintStream(new LineStream("out", response), true, CHARSET);
+                PrintStream err = new PrintStream(new LineStream("err", response), true, CHARSET);
+
+                File cwd = null;
+                LinkedList<String> args = new LinkedList<String>();
+                int code = 1;
+                String line;
+                if(!authorized(in.readLine())) {
+                    err.println("Wrong or missing daemon token, see "+tokenFile(port).getPath());
+                }
+                else {
+                    while((line = in.readLine()) != null) {
+                        if(line.startsWith("cwd ")) {
+                            cwd = new File(line.substring(4));
+                        }
+                        else if(line.startsWith("arg ")) {
+                            args.add(line.substring(4));
+                        }
+                        else if(line.equals("run")) {
+                            code = run(cwd, args, out, err);
+                            break;
+                        }
+                        else if(line.startsWith("text ")) {
+                            char[] text = new char[Integer.parseInt(line.substring(5))];
+                            for(int n = 0, read; n < text.length; n += read) {
+                                read = in.read(text, n, text.length - n);
+                                if(read == -1)
+                                    throw new IOException("Connection closed before the end of the text");
+                            }
+                            code = text(cwd, args, new String(text), response, err);
+                            break;
+                        }
+                        else {
+                            err.println("Unknown request: "+line);
+                            break;
+                        }
+                    }
+                }
+
+                out.close();
+                err.close();
+                response.exit(code);
+            }
+            finally {
+                socket.close();
+            }
+        }
+        catch(IOException e) {
+            System.err.println("Translation request failed: "+e);
+        }
+    }
+
+    private int run(File cwd, List<String> args, PrintStream out, PrintStream err) {
+        try {
+            CommandLine cl = parse(JTranslate.buildOptions(), args, cwd);
+            if(cl.hasOption("W")) {
+                err.println("--watch is not supported by the daemon");
+                return 1;
+            }
+            JTranslate.run(cl, cache.get(cl, err), out);
+            return 0;
+        }
+        catch(ParseException e) {
+            err.println(e.getMessage());
+        }
+        catch(Throwable t) {
+            t.printStackTrace(err);
+        }
+        return 1;
+    }
+
+    private int text(File cwd, List<String> args, String text, Response response, PrintStream err) {
+        try {
+            CommandLine cl = parse(JTranslate.buildEnvironmentOptions(), args, cwd);
+            response.text(cache.get(cl, err).translate(text, "<text>"));
+            return 0;
+        }
+        catch(ParseException e) {
+            err.println(e.getMessage());
+        }
+        catch(Throwable t) {
+            t.printStackTrace(err);
+        }
+        return 1;
+    }
+
+    /*
+        Parses args and parses them again with every path made absolute against cwd
+     */
+    public static CommandLine parse(Options opts, List<String> args, File cwd) throws ParseException {
+        CommandLine cl = JTranslate.parseArgs(opts, args.toArray(new String[args.size()]));
+        if(cwd == null)
+            return cl;
+
+        LinkedList<String> resolved = new LinkedList<String>();
+        for(Option o : cl.getOptions()) {
+            String value = o.getValue();
+            if(value == null) {
+                resolved.add("--"+o.getLongOpt());
+                continue;
+            }
+            if(Arrays.asList(PATH_OPTIONS).contains(o.getOpt())) {
+                StringBuilder sb = new StringBuilder();
+                for(String path : value.split(";")) {
+                    if(sb.length() > 0)
+                        sb.append(';');
+                    sb.append(resolve(path, cwd));
+                }
+                value = sb.toString();
+            }
+            resolved.add("--"+o.getLongOpt()+"="+value);
+        }
+        return JTranslate.parseArgs(opts, resolved.toArray(new String[resolved.size()]));
+    }
+
+    private static String resolve(String path, File cwd) {
+        if(path.length() == 0 || new File(path).isAbsolute())
+            return path;
+        String resolved = new File(cwd, path).getPath();
+        // keep the trailing separator, it marks translator directories
+        if(path.endsWith("/") || path.endsWith(File.separator))
+            resolved += File.separator;
+        return resolved;
+    }
+
+    private static class Response
+    {
+        private Writer out;
+
+        Response(Writer out) {
+            this.out = out;
+        }
+
+        synchronized void line(String kind, String text) throws IOException {
+            out.write(kind+" "+text+"\n");
+            out.flush();
+        }
+
+        synchronized void text(String text) throws IOException {
+            out.write("text "+text.length()+"\n");
+            out.write(text);
+            out.flush();
+        }
+
+        synchronized void exit(int code) throws IOException {
+            line("exit", String.valueOf(code));
+        }
+    }
+
+    /*
+        Sends everything written to it as response lines of one kind
+     */
+    private static class LineStream extends OutputStream
+    {
+        private String kind;
+        private Response response;
+        private ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        LineStream(String kind, Response response) {
+            this.kind = kind;
+            this.response = response;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if(b == '\n') {
+                send();
+            }
+            else {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if(line.size() > 0)
+                send();
+        }
+
+        private void send() throws IOException {
+            String text = line.toString(CHARSET);
+            if(text.endsWith("\r"))
+                text = text.substring(0, text.length()-1);
+            response.line(kind, text);
+            line.reset();
+        }
+    }
+}
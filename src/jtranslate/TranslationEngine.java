@@ -0,0 +1,7 @@
+package jtranslate;
+
+public enum TranslationEngine
+{
+    Sequential,
+    Fused
+}
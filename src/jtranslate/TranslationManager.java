@@ -1,23 +1,35 @@
 package jtranslate;
 
 import bsh.EvalError;
-import bsh.Interpreter;
+import jtranslate.grammar.FusedPattern;
 import jtranslate.grammar.GrammarRule;
 import jtranslate.grammar.GrammarType;
-import jtranslate.grammar.RewriteRule;
+import jtranslate.grammar.RewriteAutomaton;
+import jtranslate.grammar.RuleConflict;
+import jtranslate.grammar.RulePrefilter;
+import jtranslate.grammar.SpanEstimator;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Hashtable;
-import java.util.Scanner;
+import java.util.List;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class TranslationManager
 {
 	protected Hashtable<String, Translator> map = new Hashtable<String, Translator>();
+    protected Hashtable<String, ScriptTranslator> scripts = new Hashtable<String, ScriptTranslator>();
+    protected volatile MatchBudget budget;
+    protected volatile boolean strictWindow = false;
 
 	public void register(String key, Translator translator)
 	{
@@ -33,6 +45,24 @@ public class TranslationManager
 		return map.get(key);
 	}
 
+    public void registerScript(GrammarRule rule)
+    {
+        scripts.put(rule.getKey(), new ScriptTranslator(rule));
+    }
+
+    public ScriptTranslator resolveScript(GrammarRule rule)
+    {
+        ScriptTranslator script = scripts.get(rule.getKey());
+        if(script == null) {
+            synchronized(scripts) {
+                if(!scripts.containsKey(rule.getKey()))
+                    registerScript(rule);
+                script = scripts.get(rule.getKey());
+            }
+        }
+        return script;
+    }
+
     public void deRegister(String key) {
         if(!map.containsKey(key))
 			throw new Error("No Translator has been registered with this key!");
@@ -40,63 +70,515 @@ public class TranslationManager
 			map.remove(key);
     }
 
-	public String translate(File file, Iterable<RewriteRule> rewriteRules, Iterable<GrammarRule> grammarRules) throws IOException, EvalError {
-		Scanner scan = new Scanner(file);
-		scan.useDelimiter("\\z");
-			String source = scan.next();
-		scan.close();
+    /*
+        Binds the translation rules to the translators and scripts registered now. Build a
+        new plan after registering more translators.
+     */
+    public TranslationPlan plan(Iterable<GrammarRule> grammarRules, boolean fuse) {
+        return new TranslationPlan(grammarRules, this, fuse);
+    }
+
+    /*
+        Uses the fused engine when the plan has a fused pattern. Sources where the fused
+        scan can't reproduce the rule-by-rule result are translated with the sequential
+        engine and the offending rules are recorded in the run.
+     */
+	public String translate(File file, Charset charset, RewriteAutomaton rewriter, TranslationPlan plan, TranslationRun run) throws IOException, EvalError {
+		return translate(FileIO.read(file, charset), rewriter, plan, file.getPath(), run);
+	}
+
+    /*
+        Translates text like the contents of a file, scripted rules included. text is read
+        in place, the first copy is made by the rewrite rules or by the first rule that
+        matches. name identifies the source in timeout diagnostics.
+     */
+    public String translate(CharSequence text, RewriteAutomaton rewriter, TranslationPlan plan, String name, TranslationRun run) throws EvalError {
+        return translate(text, rewriter, plan, name, run, new Buffers());
+    }
+
+    /*
+        Like translate(CharSequence, ...), but writes the result to out. The sequential
+        engine splices its last pass straight into out, so text that no rule changes is
+        never copied. The fused engine has to check its result for conflicts before it can
+        write it, so out gets the finished result.
+     */
+    public void translate(CharSequence text, RewriteAutomaton rewriter, TranslationPlan plan, String name, TranslationRun run, Appendable out) throws IOException, EvalError {
+        Buffers buffers = new Buffers();
+        CharSequence source = rewrite(rewriter, text, run, buffers.rewritten);
+
+        FusedPattern fused = plan.getFused();
+        CharSequence result = fused != null && fused.isUsable() ? translateFused(source, plan, run, buffers) : null;
+        if(result != null)
+            out.append(result);
+        else
+            buffers.edits.apply(translateRules(source, plan, name, true, run, buffers), out);
+    }
 
-        for(RewriteRule rr : rewriteRules) {
-            source = source.replace(rr.getSearch(), rr.getReplace());
+    /*
+        Translates every text like translate(CharSequence, ...) and returns the results in
+        the same order. The edit list, rewrite buffer and prefilter sets are shared by the
+        whole batch, so small texts don't pay for setting them up each time.
+     */
+    public List<String> translateAll(Collection<? extends CharSequence> texts, RewriteAutomaton rewriter, TranslationPlan plan, TranslationRun run) throws EvalError {
+        Buffers buffers = new Buffers();
+        ArrayList<String> results = new ArrayList<String>(texts.size());
+        for(CharSequence text : texts) {
+            results.add(translate(text, rewriter, plan, "<batch:"+results.size()+">", run, buffers));
         }
+        return results;
+    }
+
+    private String translate(CharSequence text, RewriteAutomaton rewriter, TranslationPlan plan, String name, TranslationRun run, Buffers buffers) throws EvalError {
+		CharSequence source = rewrite(rewriter, text, run, buffers.rewritten);
+
+        FusedPattern fused = plan.getFused();
+        CharSequence result = fused != null && fused.isUsable() ? translateFused(source, plan, run, buffers) : null;
+        return result != null ? result.toString() : buffers.edits.apply(translateRules(source, plan, name, true, run, buffers));
+    }
 
-		for(GrammarRule gram : grammarRules)
+    protected String translateRules(CharSequence source, TranslationPlan plan, String name, TranslationRun run) throws EvalError {
+        Buffers buffers = new Buffers();
+        return buffers.edits.apply(translateRules(source, plan, name, true, run, buffers));
+    }
+
+    /*
+        Applies the rules one after another. Without scripts the TranslationScript rules are
+        left out. Rules that run out of their time budget are handled by timedOut() and
+        leave the source as it was. Rules the prefilter rules out are not run at all.
+
+        The edits of a rule are applied when the next rule runs, so the edits of the last
+        rule are left in buffers.edits. They apply to the returned source, and the caller
+        splices them into a String or straight into its output.
+     */
+    private CharSequence translateRules(CharSequence source, TranslationPlan plan, String name, boolean scripts, TranslationRun run, Buffers buffers) throws EvalError {
+		EditList edits = buffers.edits;
+        edits.clear();
+        MatchBudget budget = this.budget;
+        RulePrefilter prefilter = plan.getPrefilter();
+        BitSet candidates = prefilter == null ? null : scan(prefilter, source, run, buffers);
+		for(int i = 0; i<plan.size(); i++)
 		{
-			if(gram.getType() == GrammarType.Reference){
+			if(!scripts && plan.getType(i) == GrammarType.TranslationScript){
 				continue;
 			}
+            if(!edits.isEmpty()) {
+                source = edits.apply(source);
+                edits.clear();
+                // replacements may contain literals of later rules
+                if(candidates != null)
+                    candidates = scan(prefilter, source, run, buffers);
+            }
+            if(!plan.mayMatch(candidates, i)) {
+                continue;
+            }
 
-			Matcher mat = Pattern.compile(gram.getRule()).matcher(source);
-			while(mat.find())
-			{
-				String group = mat.group();
-				if(gram.getType() == GrammarType.Translation) {
-                    Translator translator = this.resolve(gram.getKey());
-				    source = source.replace(group, translator.translate(mat.toMatchResult()));
+            RuleMetrics metrics = run.metrics(plan.getKey(i));
+            long time = metrics == null ? 0 : System.nanoTime();
+            InterruptibleCharSequence guarded = budget == null ? null : budget.guard(source);
+			Matcher mat = plan.matcher(i, guarded == null ? source : guarded);
+            int from = 0;
+            try {
+                while(find(mat, guarded))
+                {
+                    if(metrics != null)
+                        metrics.lap(time);
+                    replacement(plan, i, MatchSnapshot.of(mat, source), edits.buffer(), metrics);
+                    edits.add(mat.start(), mat.end());
+                    from = mat.end();
+                    if(metrics != null)
+                        time = System.nanoTime();
                 }
-                else if(gram.getType() == GrammarType.TranslationScript) {
-                    Interpreter i = new Interpreter();
-                    i.set("match", mat.toMatchResult());
-                    Object result = i.eval(gram.getScript());
-                    if(!(result instanceof String))
-                        throw new Error("Script for '"+gram.getKey()+"' must return a String!");
-
-                    source = source.replace(group, (String)result);
-                }
-			}
+            }
+            catch(InterruptibleCharSequence.Timeout t) {
+                timedOut(budget, plan.getRule(i), name, t.getOffset(), t, run);
+                edits.clear();
+            }
+            catch(StackOverflowError e) {
+                overflowed(budget, plan.getRule(i), name, from, run);
+                edits.clear();
+            }
+            if(metrics != null) {
+                metrics.lap(time);
+                metrics.scanned(source.length());
+            }
 		}
 		return source;
-	}
+    }
 
-    public String translate(String src, Iterable<RewriteRule> rewriteRules, Iterable<GrammarRule> grammarRules)
-    {
-        for(RewriteRule rr : rewriteRules) {
-            src = src.replace(rr.getSearch(), rr.getReplace());
+    /*
+        Returns null when a conflict between rules was found in this source, or when the
+        combined scan ran out of time. The sequential engine then applies the time budget
+        to each rule on its own.
+     */
+    protected CharSequence translateFused(CharSequence source, TranslationPlan plan, TranslationRun run) throws EvalError {
+        return translateFused(source, plan, run, new Buffers());
+    }
+
+    private CharSequence translateFused(CharSequence source, TranslationPlan plan, TranslationRun run, Buffers buffers) throws EvalError {
+        if(plan.size() == 0)
+            return source;
+
+        RulePrefilter prefilter = plan.getPrefilter();
+        BitSet candidates = prefilter == null ? null : scan(prefilter, source, run, buffers);
+        if(candidates != null && candidates.isEmpty())
+            return source;
+
+        MatchBudget budget = this.budget;
+        InterruptibleCharSequence guarded = budget == null ? null : budget.guard(source);
+        try {
+            return translateFused(source, plan, candidates, guarded, run, buffers);
+        }
+        catch(InterruptibleCharSequence.Timeout t) {
+            return null;
         }
+        catch(StackOverflowError e) {
+            // the sequential engine reports the rule that overflowed
+            return null;
+        }
+    }
 
-        for(GrammarRule rule : grammarRules) {
-            if(rule.getType() != GrammarType.Translation) {
-                continue;
+    /*
+        The fused pattern holds the plan's rules in the plan's order, so the index of the
+        matching group is the rule's index in the plan.
+
+        An earlier rule matching inside a match is found with the fused overlap pattern,
+        which finds the first rule matching at each offset inside the match in the same
+        single scan as the fused pattern. So the check scans every matched character once
+        more, whatever the number of rules. laterConflict() bounds the cost of the check on
+        replacements.
+     */
+    private CharSequence translateFused(CharSequence source, TranslationPlan plan, BitSet candidates, InterruptibleCharSequence guarded, TranslationRun run, Buffers buffers) throws EvalError {
+        FusedPattern fused = plan.getFused();
+        RuleMetrics metrics = run.metrics(TranslationProfile.FUSED);
+        long time = metrics == null ? 0 : System.nanoTime();
+        Matcher mat = fused.getMatcher(guarded == null ? source : guarded);
+        Matcher overlap = null;
+        EditList edits = buffers.edits;
+        edits.clear();
+        while(find(mat, guarded))
+        {
+            int index = fused.ruleIndex(mat);
+            String key = plan.getKey(index);
+            if(mat.start() == mat.end()) {
+                run.conflict(new RuleConflict(key, null, "matches the empty string"));
+                return null;
+            }
+
+            // an earlier rule matching inside this match would have changed the text this rule sees
+            if(index > 0 && (candidates == null || candidates.previousSetBit(index-1) != -1)) {
+                if(overlap == null)
+                    overlap = fused.getOverlapMatcher(guarded == null ? source : guarded);
+                // a lookahead also matches at the end of the region, which is after the match
+                overlap.region(mat.start()+1, mat.end());
+                while(find(overlap, guarded) && overlap.start() < mat.end()) {
+                    int j = fused.ruleIndex(overlap);
+                    if(j < index) {
+                        run.conflict(new RuleConflict(plan.getKey(j), key, "overlapping matches"));
+                        return null;
+                    }
+                }
+            }
+
+            if(metrics != null)
+                metrics.lap(time);
+            replacement(plan, index, fused.ruleMatch(MatchSnapshot.of(mat, source), index), edits.buffer(), run.metrics(key));
+            if(metrics != null)
+                time = System.nanoTime();
+
+            if(edits.size() == buffers.rules.length)
+                buffers.rules = Arrays.copyOf(buffers.rules, 2*edits.size());
+            buffers.rules[edits.size()] = index;
+            edits.add(mat.start(), mat.end());
+        }
+
+        CharSequence result = edits.isEmpty() ? source : edits.apply(source);
+        RuleConflict conflict = laterConflict(result, source, plan, edits, buffers.rules);
+        if(metrics != null) {
+            metrics.lap(time);
+            metrics.scanned(source.length());
+        }
+        if(conflict != null) {
+            run.conflict(conflict);
+            return null;
+        }
+        return result;
+    }
+
+    /*
+        Finds a later rule that the sequential engine would have applied to text an earlier
+        rule produced. Each replacement is checked in context: the fused output up to the end
+        of the replacement, followed by the source after the replaced match.
+
+        Rules with a known maximum length are tried at every offset from which a match could
+        reach into the replacement. Rules without one count as conflicting when one of their
+        required literals overlaps the replacement, rules with neither are only tried at the
+        offsets of the replacement. So an edit costs about its replacement length plus twice
+        the span of each later bounded rule, never a scan of the whole source.
+     */
+    private static RuleConflict laterConflict(CharSequence result, CharSequence source, TranslationPlan plan, EditList edits, int[] rules) {
+        int shift = 0;
+        for(int k = 0; k<edits.size(); k++) {
+            int start = edits.start(k) + shift;
+            int end = start + edits.replacementLength(k);
+            shift = end - edits.end(k);
+
+            CharSequence text = null;
+            for(int j = rules[k]+1; j<plan.size(); j++) {
+                if(text == null)
+                    text = new Splice(result, end, source, edits.end(k));
+                if(reaches(plan, j, text, start, end))
+                    return new RuleConflict(plan.getKey(rules[k]), plan.getKey(j), "replacement is matched by the later rule");
             }
+        }
+        return null;
+    }
 
-            Matcher mat = rule.getPattern().matcher(src);
-            while(mat.find()) {
-                String group = mat.group();
-                Translator t = this.resolve(rule.getKey());
-                src = src.replace(group, t.translate(mat.toMatchResult()));
+    /*
+        True when rule j may match across the replacement at [start, end) of text. An empty
+        replacement joins the text around it, a match across start counts.
+     */
+    private static boolean reaches(TranslationPlan plan, int j, CharSequence text, int start, int end) {
+        GrammarRule rule = plan.getRule(j);
+        int span = rule.getMaxSpan();
+        int last = Math.max(start, end);
+        if(span == SpanEstimator.UNBOUNDED && rule.getRequiredLiterals() != null) {
+            for(String literal : rule.getRequiredLiterals()) {
+                for(int p = Math.max(0, start-literal.length()+1); p<last && p+literal.length() <= text.length(); p++) {
+                    if(p+literal.length() > start && occursAt(text, literal, p))
+                        return true;
+                }
             }
+            return false;
+        }
+
+        int from = span == SpanEstimator.UNBOUNDED ? start : Math.max(0, start-span+1);
+        int limit = span == SpanEstimator.UNBOUNDED ? text.length() : Math.min(text.length(), last+span);
+        Matcher probe = plan.matcher(j, text);
+        probe.useTransparentBounds(true);
+        probe.useAnchoringBounds(false);
+        for(int p = from; p<last; p++) {
+            probe.region(p, limit);
+            if(probe.lookingAt() && probe.end() > start && (end > start || probe.start() < start))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean occursAt(CharSequence text, String literal, int offset) {
+        for(int i = 0; i<literal.length(); i++) {
+            if(text.charAt(offset+i) != literal.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private BitSet scan(RulePrefilter prefilter, CharSequence source, TranslationRun run, Buffers buffers) {
+        RuleMetrics metrics = run.metrics(TranslationProfile.PREFILTER);
+        if(metrics == null)
+            return prefilter.scan(source, buffers.candidates, buffers.found);
+
+        long start = System.nanoTime();
+        BitSet candidates = prefilter.scan(source, buffers.candidates, buffers.found);
+        metrics.lap(start);
+        metrics.scanned(source.length());
+        return candidates;
+    }
+
+    private static boolean find(Matcher mat, InterruptibleCharSequence guarded) {
+        if(guarded != null)
+            guarded.startMatch();
+        return mat.find();
+    }
+
+    /*
+        Called when a rule ran out of its time budget on the source 'name'. Throws a
+        RuleTimeoutError or records the timeout in the run, depending on the budget's policy.
+     */
+    protected void timedOut(MatchBudget budget, GrammarRule gram, String name, long offset, InterruptibleCharSequence.Timeout t, TranslationRun run) {
+        timedOut(budget, gram, name, offset, t.isFileBudget() ? budget.getFileMillis()+" ms file" : budget.getMatchMillis()+" ms match", run);
+    }
+
+    /*
+        Called when a rule's expression recursed deeper than the thread's stack allows while
+        searching from offset, which java.util.regex does for repeated alternations on long
+        input. Handled like running out of time; without a budget it always aborts, as a
+        RuleTimeoutError naming the rule, source and offset.
+     */
+    protected void overflowed(MatchBudget budget, GrammarRule gram, String name, long offset, TranslationRun run) {
+        timedOut(budget, gram, name, offset, "stack", run);
+    }
+
+    private void timedOut(MatchBudget budget, GrammarRule gram, String name, long offset, String limit, TranslationRun run) {
+        RuleTimeout timeout = new RuleTimeout(gram.getKey(), name, offset, limit);
+        if(budget == null || budget.getPolicy() == TimeoutPolicy.Abort)
+            throw new RuleTimeoutError(timeout);
+        run.timedOut(timeout);
+    }
+
+    /*
+        Limits the time rules may spend matching, null for no limit
+     */
+    public void setBudget(MatchBudget budget) {
+        this.budget = budget;
+    }
+
+    public MatchBudget getBudget() {
+        return budget;
+    }
+
+    /*
+        Makes a streamed match that runs into the end of the window fail the translation
+        instead of being recorded in the run
+     */
+    public void setStrictWindow(boolean strictWindow) {
+        this.strictWindow = strictWindow;
+    }
+
+    public boolean isStrictWindow() {
+        return strictWindow;
+    }
+
+    /*
+        Appends the plan's replacement for a match of the rule at index to out, adding the
+        translation time to metrics when not null
+     */
+    protected void replacement(TranslationPlan plan, int index, MatchResult match, StringBuilder out, RuleMetrics metrics) throws EvalError {
+        if(metrics == null) {
+            plan.translate(index, match, out);
+            return;
+        }
+
+        long start = System.nanoTime();
+        int length = out.length();
+        plan.translate(index, match, out);
+        metrics.translated(System.nanoTime() - start, out.length() - length);
+    }
+
+    protected CharSequence rewrite(RewriteAutomaton rewriter, CharSequence source, TranslationRun run) {
+        return rewrite(rewriter, source, run, new StringBuilder(source.length() + 16));
+    }
+
+    /*
+        Rewrites into out, which is cleared first. Without rewrite rules source itself is
+        returned, not a copy.
+     */
+    private CharSequence rewrite(RewriteAutomaton rewriter, CharSequence source, TranslationRun run, StringBuilder out) {
+        if(rewriter.isEmpty())
+            return source;
+
+        RuleMetrics metrics = run.metrics(TranslationProfile.REWRITE);
+        long start = metrics == null ? 0 : System.nanoTime();
+        out.setLength(0);
+        rewriter.rewrite(source, 0, source.length(), out);
+        String result = out.toString();
+        if(metrics != null) {
+            metrics.lap(start);
+            metrics.scanned(source.length());
+        }
+        return result;
+    }
+
+    /*
+        Buffers a translation reuses between its rules, and a batch between its texts
+     */
+    private static class Buffers
+    {
+        final EditList edits = new EditList();
+        final StringBuilder rewritten = new StringBuilder();
+        final BitSet candidates = new BitSet();
+        final BitSet found = new BitSet();
+        // rule of each edit of a fused pass
+        int[] rules = new int[16];
+    }
+
+    /*
+        head up to headEnd followed by tail from tailStart, without copying either
+     */
+    private static class Splice implements CharSequence
+    {
+        final CharSequence head;
+        final int headEnd;
+        final CharSequence tail;
+        final int tailStart;
+
+        Splice(CharSequence head, int headEnd, CharSequence tail, int tailStart) {
+            this.head = head;
+            this.headEnd = headEnd;
+            this.tail = tail;
+            this.tailStart = tailStart;
+        }
+
+        public int length() {
+            return headEnd + tail.length() - tailStart;
+        }
+
+        public char charAt(int index) {
+            return index < headEnd ? head.charAt(index) : tail.charAt(tailStart + index - headEnd);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return new StringBuilder(end - start).append(this, start, end);
+        }
+
+        public String toString() {
+            return new StringBuilder(length()).append(this, 0, length()).toString();
+        }
+    }
+
+    /*
+        Applies the rewrite rules and the class based translation rules, scripted rules are
+        left out.
+     */
+    public String translate(String src, RewriteAutomaton rewriter, TranslationPlan plan)
+    {
+        try {
+            TranslationRun run = new TranslationRun();
+            Buffers buffers = new Buffers();
+            return buffers.edits.apply(translateRules(rewrite(rewriter, src, run), plan, "<text>", false, run, buffers));
+        }
+        catch(EvalError e) {
+            // only scripts throw EvalError
+            throw new Error(e);
+        }
+    }
+
+    /*
+        Streaming translation with bounded memory. The rewrite rules and every translation rule
+        are chained as WindowedWriters, each holding back only the text a match could still
+        span. Rules are applied in the same order as the sequential engine. The output writer
+        is flushed, but not closed.
+     */
+    public void translate(Reader in, Writer out, RewriteAutomaton rewriter, TranslationPlan plan, int window) throws IOException, EvalError {
+        translate(in, out, rewriter, plan, window, "<stream>", new TranslationRun());
+    }
+
+    /*
+        name identifies the source in timeout diagnostics, which are recorded in run
+     */
+    public void translate(Reader in, Writer out, RewriteAutomaton rewriter, TranslationPlan plan, int window, String name, TranslationRun run) throws IOException, EvalError {
+        Writer chain = out;
+        for(int i = plan.size()-1; i>=0; i--) {
+            chain = new RuleWriter(chain, plan, i, this, window, name, run);
+        }
+        if(!rewriter.isEmpty()) {
+            chain = new RewriteWriter(chain, rewriter, window, run.metrics(TranslationProfile.REWRITE));
+        }
+
+        char[] buf = new char[8192];
+        try {
+            int n;
+            while((n = in.read(buf)) != -1) {
+                chain.write(buf, 0, n);
+            }
+
+            if(chain instanceof WindowedWriter)
+                ((WindowedWriter)chain).finish();
+            else
+                chain.flush();
+        }
+        catch(RuleWriter.ScriptIOException e) {
+            throw e.getEvalError();
         }
-        return src;
     }
 
     public boolean hasTranslator(String key) {
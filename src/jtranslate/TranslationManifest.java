@@ -0,0 +1,160 @@
+package jtranslate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Record of the sources translated into an output directory, used by --incremental to skip
+    sources that have not changed since the last run. Every entry holds the content hash,
+    size and modification time of the source. The manifest also stores a fingerprint of the
+    grammar, translator classpath and options, and all entries are dropped when it changes.
+
+    A source whose size and modification time are unchanged is not hashed again. When only
+    its modification time changed, the new time is stored so it isn't hashed again on the
+    next run either. Translated sources are hashed while they are read.
+ */
+public class TranslationManifest
+{
+    public static final String FILE_NAME = ".jtranslate-manifest";
+    private static final String HEADER = "# jTranslate manifest";
+
+    private File file;
+    private String fingerprint;
+    private Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    public TranslationManifest(File outputDir, String fingerprint) throws IOException {
+        this.file = new File(outputDir, FILE_NAME);
+        this.fingerprint = fingerprint;
+        if(file.exists()) {
+            load();
+        }
+    }
+
+    /*
+        True when source was translated to output with the current fingerprint and has not
+        changed since.
+     */
+    public boolean isCurrent(String path, File source, File output) throws IOException {
+        Entry e = entries.get(path);
+        if(e == null || !output.exists())
+            return false;
+        long modified = source.lastModified();
+        if(e.size != source.length())
+            return false;
+        if(e.modified == modified)
+            return true;
+        if(!e.hash.equals(FileIO.hash(source)))
+            return false;
+        entries.put(path, new Entry(e.hash, e.size, modified));
+        return true;
+    }
+
+    public void update(String path, File source) throws IOException {
+        long modified = source.lastModified();
+        update(path, FileIO.hash(source), source.length(), modified);
+    }
+
+    /*
+        Records the hash of a source that was computed while it was read. modified has to
+        be taken before reading, so a source changed while it was read is hashed again on
+        the next run.
+     */
+    public void update(String path, String hash, long size, long modified) {
+        entries.put(path, new Entry(hash, size, modified));
+    }
+
+    public void remove(String path) {
+        entries.remove(path);
+    }
+
+    /*
+        Drops the entries of sources that no longer exist below srcRoot and deletes their
+        outputs. Returns the paths of the dropped entries.
+     */
+    public List<String> removeMissing(File srcRoot, File outputDir) {
+        List<String> removed = new LinkedList<String>();
+        for(String path : new TreeMap<String, Entry>(entries).keySet()) {
+            if(new File(srcRoot, path).exists())
+                continue;
+            entries.remove(path);
+            new File(outputDir, path).delete();
+            removed.add(path);
+        }
+        return removed;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /*
+        Writes to a temporary file first so an interrupted run can't leave a corrupt manifest
+     */
+    public void save() throws IOException {
+        File tmp = new File(file.getPath()+".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+        try {
+            out.write(HEADER+"\n");
+            out.write("fingerprint "+fingerprint+"\n");
+            for(Map.Entry<String, Entry> e : new TreeMap<String, Entry>(entries).entrySet()) {
+                Entry entry = e.getValue();
+                out.write(entry.hash+" "+entry.size+" "+entry.modified+" "+e.getKey()+"\n");
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if(file.exists() && !file.delete())
+            throw new IOException("Can not replace manifest "+file.getPath());
+        if(!tmp.renameTo(file))
+            throw new IOException("Can not write manifest "+file.getPath());
+    }
+
+    private void load() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = in.readLine();
+            if(!HEADER.equals(line))
+                return;
+            line = in.readLine();
+            if(line == null || !line.equals("fingerprint "+fingerprint))
+                return;
+
+            while((line = in.readLine()) != null) {
+                String[] parts = line.split(" ", 4);
+                if(parts.length == 4) {
+                    entries.put(parts[3], new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static class Entry
+    {
+        final String hash;
+        final long size;
+        final long modified;
+
+        Entry(String hash, long size, long modified) {
+            this.hash = hash;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package jtranslate;
+
+import bsh.EvalError;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Translates the files of a source directory in three stages joined by bounded queues.
+    Reader threads check the manifest and read sources, workers translate them, and writer
+    threads create the output directories and write the results. Disk reads and writes
+    overlap with translation, and each queue holds at most a few files per worker, so
+    memory use doesn't grow with the size of the tree.
+
+    The log of every file is printed in the order the files were submitted, and the first
+    failing file in that order stops the run, so the log is the same for any number of
+    threads. With --stream workers translate from the source straight into the output
+    file, and the reader and writer stages only check the manifest and log.
+ */
+public class TranslationPipeline
+{
+    // threads each for reading and for writing
+    public static final int IO_THREADS = 2;
+    // files per worker that each queue can hold
+    public static final int QUEUED_PER_WORKER = 2;
+
+    private final File srcRoot;
+    private final File outputDir;
+    private final JTranslateEnvironment env;
+    private final TranslationManifest manifest;
+    private final boolean stream;
+    private final TranslationRun run;
+
+    private final BlockingQueue<Job> pending;
+    private final BlockingQueue<Job> read;
+    private final BlockingQueue<Job> translated;
+    private final ExecutorService readers;
+    private final ExecutorService workers;
+    private final ExecutorService writers;
+
+    // output directories known to exist
+    private final Map<File, Boolean> dirs = new ConcurrentHashMap<File, Boolean>();
+    // submitted files whose log has not been printed yet
+    private final LinkedList<Job> jobs = new LinkedList<Job>();
+
+    /*
+        Conflicts, timeouts and profile of all files go to run
+     */
+    public TranslationPipeline(File srcRoot, File outputDir, JTranslateEnvironment env, TranslationManifest manifest, boolean stream, int threads, TranslationRun run) {
+        this.srcRoot = srcRoot;
+        this.outputDir = outputDir;
+        this.env = env;
+        this.manifest = manifest;
+        this.stream = stream;
+        this.run = run;
+
+        threads = Math.max(1, threads);
+        int capacity = QUEUED_PER_WORKER * threads;
+        pending = new ArrayBlockingQueue<Job>(capacity);
+        read = new ArrayBlockingQueue<Job>(capacity);
+        translated = new ArrayBlockingQueue<Job>(capacity);
+
+        readers = start(IO_THREADS, new Stage(pending) {
+            void process(Job job) throws Exception {
+                read(job);
+            }
+        });
+        workers = start(threads, new Stage(read) {
+            void process(Job job) throws Exception {
+                translate(job);
+            }
+        });
+        writers = start(IO_THREADS, new Stage(translated) {
+            void process(Job job) throws Exception {
+                write(job);
+            }
+        });
+    }
+
+    /*
+        Queues source for translation, waiting while the pipeline is full. Logs of files
+        that are done by then are printed to log.
+     */
+    public void submit(File source, PrintStream log) throws IOException, EvalError {
+        String subPath = srcRoot.toURI().relativize(source.toURI()).getPath();
+        Job job = new Job(source, subPath, new File(outputDir, subPath));
+        jobs.add(job);
+        try {
+            pending.put(job);
+        }
+        catch(InterruptedException e) {
+            throw new IOException("Interrupted while translating", e);
+        }
+        print(log, false);
+    }
+
+    /*
+        Waits for all submitted files and prints the rest of the log
+     */
+    public void finish(PrintStream log) throws IOException, EvalError {
+        print(log, true);
+    }
+
+    /*
+        Stops all stages, files that are still queued are dropped
+     */
+    public void shutdown() {
+        readers.shutdownNow();
+        workers.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    private void print(PrintStream log, boolean wait) throws IOException, EvalError {
+        try {
+            while(!jobs.isEmpty() && (wait || jobs.getFirst().done.getCount() == 0)) {
+                Job job = jobs.removeFirst();
+                job.done.await();
+                log.print(job.log.toString());
+                if(job.error != null)
+                    rethrow(job.error);
+            }
+        }
+        catch(InterruptedException e) {
+            throw new IOException("Interrupted while translating", e);
+        }
+    }
+
+    private void read(Job job) throws IOException, InterruptedException {
+        if(manifest != null && manifest.isCurrent(job.subPath, job.source, job.outputFile)) {
+            job.out.println("Unchanged file: "+job.source.getCanonicalPath());
+            job.finish();
+            return;
+        }
+
+        job.out.println("Translating file: "+job.source.getCanonicalPath());
+        job.modified = job.source.lastModified();
+        if(manifest != null)
+            job.digest = FileIO.sha1();
+        if(!stream)
+            job.text = FileIO.read(job.source, env.getCharset(), job.digest);
+        read.put(job);
+    }
+
+    private void translate(Job job) throws IOException, EvalError, InterruptedException {
+        if(!stream) {
+            job.text = env.translate(job.text, job.source.getPath(), run);
+            translated.put(job);
+            return;
+        }
+
+        createParent(job.outputFile);
+        Reader in = FileIO.reader(job.source, env.getCharset(), job.digest);
+        Writer out = FileIO.writer(job.outputFile, env.getCharset());
+        try {
+            env.translate(in, out, job.source.getPath(), run);
+        }
+        finally {
+            in.close();
+            out.close();
+        }
+        translated.put(job);
+    }
+
+    private void write(Job job) throws IOException {
+        if(!stream) {
+            createParent(job.outputFile);
+            FileIO.write(job.outputFile, job.text, env.getCharset());
+            job.text = null;
+        }
+        JTranslate.record(manifest, job.subPath, job.source, job.digest, job.modified, run);
+        job.out.println("\t\t->\t"+job.outputFile.getPath());
+        job.finish();
+    }
+
+    private void createParent(File outputFile) {
+        File parent = outputFile.getParentFile();
+        if(dirs.containsKey(parent))
+            return;
+        // several threads may create the same directory, mkdirs fails only for the losers
+        if(!parent.exists())
+            parent.mkdirs();
+        dirs.put(parent, Boolean.TRUE);
+    }
+
+    private static void rethrow(Throwable error) throws IOException, EvalError {
+        if(error instanceof IOException)
+            throw (IOException)error;
+        else if(error instanceof EvalError)
+            throw (EvalError)error;
+        else if(error instanceof RuntimeException)
+            throw (RuntimeException)error;
+        else if(error instanceof Error)
+            throw (Error)error;
+        throw new Error(error);
+    }
+
+    private static ExecutorService start(int threads, Stage stage) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for(int i = 0; i<threads; i++) {
+            executor.execute(stage);
+        }
+        return executor;
+    }
+
+    /*
+        Loop of a stage's threads, ended by shutdown(). A failure is recorded in the file's
+        job, which is done then.
+     */
+    private static abstract class Stage implements Runnable
+    {
+        final BlockingQueue<Job> in;
+
+        Stage(BlockingQueue<Job> in) {
+            this.in = in;
+        }
+
+        abstract void process(Job job) throws Exception;
+
+        public void run() {
+            while(true) {
+                Job job;
+                try {
+                    job = in.take();
+                }
+                catch(InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    process(job);
+                }
+                catch(InterruptedException e) {
+                    return;
+                }
+                catch(Throwable t) {
+                    job.error = t;
+                    job.finish();
+                }
+            }
+        }
+    }
+
+    private static class Job
+    {
+        final File source;
+        final String subPath;
+        final File outputFile;
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final PrintStream out = new PrintStream(log, true);
+        final CountDownLatch done = new CountDownLatch(1);
+        // the source text, then its translation
+        CharSequence text;
+        // hash of the source as it is read and its modification time from before, for the manifest
+        MessageDigest digest;
+        long modified;
+        Throwable error;
+
+        Job(File source, String subPath, File outputFile) {
+            this.source = source;
+            this.subPath = subPath;
+            this.outputFile = outputFile;
+        }
+
+        void finish() {
+            out.close();
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package jtranslate;
+
+import bsh.EvalError;
+import jtranslate.grammar.FusedPattern;
+import jtranslate.grammar.GrammarRule;
+import jtranslate.grammar.GrammarType;
+import jtranslate.grammar.RulePrefilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    The translation and scripted translation rules of a grammar bound to their translators,
+    in the order they are applied. Every rule has a fixed index, and its key, type, compiled
+    pattern and translator or BeanShell script are array entries at that index. Translators
+    that don't append their replacement themselves are wrapped in a TranslatorAdapter.
+    Nothing in a plan changes after it is built, so any number of threads can translate
+    with one plan without locking or looking anything up by key.
+
+    Built by TranslationManager.plan() from the translators registered at that time. The
+    prefilter and the fused pattern, if any, index rules the same way.
+ */
+public final class TranslationPlan
+{
+    private final GrammarRule[] rules;
+    private final String[] keys;
+    private final GrammarType[] types;
+    private final Pattern[] patterns;
+    private final StreamingTranslator[] translators;
+    private final ScriptTranslator[] scripts;
+    private final RulePrefilter prefilter;
+    private final FusedPattern fused;
+    private final ThreadLocal<Matcher[]> matchers = new ThreadLocal<Matcher[]>();
+
+    /*
+        fuse also builds the FusedPattern for the fused engine
+     */
+    TranslationPlan(Iterable<GrammarRule> grammarRules, TranslationManager manager, boolean fuse) {
+        ArrayList<GrammarRule> list = new ArrayList<GrammarRule>();
+        for(GrammarRule rule : grammarRules) {
+            if(rule.getType() != GrammarType.Reference)
+                list.add(rule);
+        }
+
+        int n = list.size();
+        rules = list.toArray(new GrammarRule[n]);
+        keys = new String[n];
+        types = new GrammarType[n];
+        patterns = new Pattern[n];
+        translators = new StreamingTranslator[n];
+        scripts = new ScriptTranslator[n];
+        for(int i = 0; i<n; i++) {
+            keys[i] = rules[i].getKey();
+            types[i] = rules[i].getType();
+            patterns[i] = rules[i].getPattern();
+            // compiled scripts are registered as translators under the rule's key
+            if(manager.hasTranslator(keys[i]))
+                translators[i] = TranslatorAdapter.adapt(manager.resolve(keys[i]));
+            else if(types[i] == GrammarType.TranslationScript)
+                scripts[i] = manager.resolveScript(rules[i]);
+        }
+
+        RulePrefilter p = new RulePrefilter(list);
+        prefilter = p.isUseful() ? p : null;
+        fused = fuse ? new FusedPattern(list) : null;
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    public GrammarRule getRule(int index) {
+        return rules[index];
+    }
+
+    public List<GrammarRule> getRules() {
+        return Collections.unmodifiableList(Arrays.asList(rules));
+    }
+
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    public GrammarType getType(int index) {
+        return types[index];
+    }
+
+    public Pattern getPattern(int index) {
+        return patterns[index];
+    }
+
+    /*
+        Skips rules whose required literals don't occur in a source, null when no rule has
+        required literals
+     */
+    public RulePrefilter getPrefilter() {
+        return prefilter;
+    }
+
+    /*
+        The rules combined for the fused engine, null when the plan was built for the
+        sequential engine
+     */
+    public FusedPattern getFused() {
+        return fused;
+    }
+
+    /*
+        True when the prefilter's candidates, null for no prefilter, include the rule
+     */
+    public boolean mayMatch(BitSet candidates, int index) {
+        return candidates == null || candidates.get(index);
+    }
+
+    /*
+        Matcher for a rule's pattern that is reused by the calling thread. The returned
+        matcher is only valid until the next call for the same rule on the same thread.
+     */
+    public Matcher matcher(int index, CharSequence input) {
+        Matcher[] m = matchers.get();
+        if(m == null) {
+            m = new Matcher[rules.length];
+            matchers.set(m);
+        }
+        if(m[index] == null) {
+            m[index] = patterns[index].matcher(input);
+        }
+        else {
+            m[index].reset(input);
+            m[index].useTransparentBounds(false);
+            m[index].useAnchoringBounds(true);
+        }
+        return m[index];
+    }
+
+    /*
+        Appends the replacement for a match of the rule to out
+     */
+    public void translate(int index, MatchResult match, StringBuilder out) throws EvalError {
+        if(translators[index] != null)
+            translators[index].translate(match, out);
+        else if(scripts[index] != null)
+            out.append(scripts[index].translate(match));
+        else
+            throw new Error("No translator registered for '"+keys[index]+"' !");
+    }
+}
@@ -0,0 +1,109 @@
+package jtranslate;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+    Metrics of every rule used while profiling. Besides the grammar rules there are entries
+    for the rewrite pass (REWRITE), the literal scan that rules out rules (PREFILTER) and
+    for the combined scan of the fused engine (FUSED), whose matches are counted on the
+    rules they belong to.
+ */
+public class TranslationProfile
+{
+    public static final String REWRITE = "@rewrite";
+    public static final String FUSED = "@fused";
+    public static final String PREFILTER = "@prefilter";
+
+    private ConcurrentMap<String, RuleMetrics> metrics = new ConcurrentHashMap<String, RuleMetrics>();
+
+    public RuleMetrics get(String key) {
+        RuleMetrics m = metrics.get(key);
+        if(m == null) {
+            RuleMetrics created = new RuleMetrics(key);
+            m = metrics.putIfAbsent(key, created);
+            if(m == null)
+                m = created;
+        }
+        return m;
+    }
+
+    public void clear() {
+        metrics.clear();
+    }
+
+    /*
+        Metrics ordered by total time, slowest first
+     */
+    public List<RuleMetrics> getRanked() {
+        ArrayList<RuleMetrics> ranked = new ArrayList<RuleMetrics>(metrics.values());
+        Collections.sort(ranked, new Comparator<RuleMetrics>() {
+            public int compare(RuleMetrics a, RuleMetrics b) {
+                if(a.getTotalNanos() != b.getTotalNanos())
+                    return a.getTotalNanos() > b.getTotalNanos() ? -1 : 1;
+                return a.getKey().compareTo(b.getKey());
+            }
+        });
+        return ranked;
+    }
+
+    public void print(PrintStream out) {
+        List<RuleMetrics> ranked = getRanked();
+        long total = 0;
+        int width = 4;
+        for(RuleMetrics m : ranked) {
+            total += m.getTotalNanos();
+            width = Math.max(width, m.getKey().length());
+        }
+
+        String format = "%-"+width+"s %7s %10s %10s %13s %9s %14s %14s%n";
+        out.printf(format, "Rule", "Time", "Total ms", "Scan ms", "Translate ms", "Matches", "Chars scanned", "Replaced with");
+        for(RuleMetrics m : ranked) {
+            out.printf(format, m.getKey(),
+                    String.format("%.1f%%", total == 0 ? 0.0 : 100.0*m.getTotalNanos()/total),
+                    millis(m.getTotalNanos()), millis(m.getScanNanos()), millis(m.getTranslateNanos()),
+                    m.getMatches(), m.getCharsScanned(), m.getReplacementChars());
+        }
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\n  \"rules\": [");
+        boolean first = true;
+        for(RuleMetrics m : getRanked()) {
+            sb.append(first ? "\n" : ",\n");
+            sb.append("    {\"rule\": ").append(quote(m.getKey()))
+              .append(", \"totalNanos\": ").append(m.getTotalNanos())
+              .append(", \"scanNanos\": ").append(m.getScanNanos())
+              .append(", \"translateNanos\": ").append(m.getTranslateNanos())
+              .append(", \"matches\": ").append(m.getMatches())
+              .append(", \"charsScanned\": ").append(m.getCharsScanned())
+              .append(", \"replacementChars\": ").append(m.getReplacementChars())
+              .append("}");
+            first = false;
+        }
+        return sb.append("\n  ]\n}\n").toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos/1000000.0);
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for(int i = 0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if(c < 0x20)
+                sb.append(String.format("\\u%04x", (int)c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,99 @@
+package jtranslate;
+
+import jtranslate.grammar.RuleConflict;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/*
+    What one run over a set of sources reports: rule conflicts that made the fused engine
+    fall back, rules skipped because they ran out of time or stack, streamed matches that
+    reached the end of the window, and the rule profile when profiling. Watch batches and
+    daemon requests share an environment but each translates with a run of its own, so
+    their reports don't mix and nothing piles up in the environment. The threads of a run
+    may share it.
+ */
+public class TranslationRun
+{
+    private final Set<RuleConflict> conflicts = Collections.synchronizedSet(new LinkedHashSet<RuleConflict>());
+    private final List<RuleTimeout> timeouts = Collections.synchronizedList(new LinkedList<RuleTimeout>());
+    private final List<WindowOverflow> overflows = Collections.synchronizedList(new LinkedList<WindowOverflow>());
+    private final TranslationProfile profile;
+
+    public TranslationRun() {
+        this(null);
+    }
+
+    /*
+        profile collects per-rule metrics, null for none
+     */
+    public TranslationRun(TranslationProfile profile) {
+        this.profile = profile;
+    }
+
+    public void conflict(RuleConflict conflict) {
+        conflicts.add(conflict);
+    }
+
+    /*
+        Conflicts found in individual sources, in the order they were found
+     */
+    public List<RuleConflict> getConflicts() {
+        synchronized(conflicts) {
+            return new LinkedList<RuleConflict>(conflicts);
+        }
+    }
+
+    public void timedOut(RuleTimeout timeout) {
+        timeouts.add(timeout);
+    }
+
+    /*
+        Rules that were skipped because they ran out of time or stack
+     */
+    public List<RuleTimeout> getTimeouts() {
+        synchronized(timeouts) {
+            return new LinkedList<RuleTimeout>(timeouts);
+        }
+    }
+
+    /*
+        True when a rule was skipped on the source called name
+     */
+    public boolean timedOut(String name) {
+        synchronized(timeouts) {
+            for(RuleTimeout t : timeouts) {
+                if(t.getSource().equals(name))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    public void overflowed(WindowOverflow overflow) {
+        overflows.add(overflow);
+    }
+
+    /*
+        Streamed matches that may have been cut off by the window
+     */
+    public List<WindowOverflow> getWindowOverflows() {
+        synchronized(overflows) {
+            return new LinkedList<WindowOverflow>(overflows);
+        }
+    }
+
+    public TranslationProfile getProfile() {
+        return profile;
+    }
+
+    /*
+        Metrics of the rule with this key, or null when not profiling
+     */
+    RuleMetrics metrics(String key) {
+        return profile == null ? null : profile.get(key);
+    }
+}
@@ -0,0 +1,37 @@
+package jtranslate;
+
+import java.util.regex.MatchResult;
+
+/*
+    Lets a Translator that only returns strings be used as a StreamingTranslator. The
+    returned replacement is appended to the output.
+ */
+public class TranslatorAdapter implements StreamingTranslator
+{
+    private Translator translator;
+
+    public TranslatorAdapter(Translator translator) {
+        this.translator = translator;
+    }
+
+    /*
+        translator itself when it already is a StreamingTranslator
+     */
+    public static StreamingTranslator adapt(Translator translator) {
+        if(translator instanceof StreamingTranslator)
+            return (StreamingTranslator)translator;
+        return new TranslatorAdapter(translator);
+    }
+
+    public String translate(MatchResult mat) {
+        return translator.translate(mat);
+    }
+
+    public void translate(MatchResult mat, StringBuilder out) {
+        out.append(translator.translate(mat));
+    }
+
+    public Translator getTranslator() {
+        return translator;
+    }
+}
@@ -0,0 +1,49 @@
+package jtranslate;
+
+/*
+    Text whose end is not the end of the source. It claims one character more than it has
+    and reading that character throws More, so a regular expression that needs to know
+    what follows, to extend a match or to decide '$', '\b' or a lookahead, stops instead
+    of taking the end of the text for the end of the source.
+ */
+class UnfinishedText implements CharSequence
+{
+    private static final More MORE = new More();
+
+    private final CharSequence text;
+
+    UnfinishedText(CharSequence text) {
+        this.text = text;
+    }
+
+    public int length() {
+        return text.length() + 1;
+    }
+
+    public char charAt(int index) {
+        if(index == text.length())
+            throw MORE;
+        return text.charAt(index);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    /*
+        Thrown for every read past the end, without a stack trace
+     */
+    static class More extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        More() {
+            super("Text continues after the window", null, false, false);
+        }
+    }
+}
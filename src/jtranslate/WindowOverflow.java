@@ -0,0 +1,42 @@
+package jtranslate;
+
+/*
+    A streamed rule that ran into the end of its window before the end of the source while
+    matching, so more text could have changed its matches. The offset is in the text the
+    rule was applied to, after the rewrite rules and earlier rules.
+ */
+public class WindowOverflow
+{
+    private String rule;
+    private String source;
+    private long offset;
+    private int window;
+
+    public WindowOverflow(String rule, String source, long offset, int window) {
+        this.rule = rule;
+        this.source = source;
+        this.offset = offset;
+        this.window = window;
+    }
+
+    public String getRule() {
+        return rule;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    @Override
+    public String toString() {
+        return "rule '"+rule+"' ran into the end of its "+window+" character window in "+source+" at offset "+offset;
+    }
+}
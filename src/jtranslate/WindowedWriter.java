@@ -0,0 +1,105 @@
+package jtranslate;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+    Writer that translates the text written to it through a sliding window and passes the
+    result on to another writer. Text is held back only while it could still be part of a
+    match: everything more than 'span' characters before the end of the buffered text is
+    final once it has been translated. Up to 'span' already translated characters are kept
+    in front of the window so lookbehinds and word boundaries still see their context.
+
+    Memory use is bounded by the context, the span and the window, regardless of input size.
+    A stage may leave a match that depends on text not written yet for the next window,
+    which at most doubles the buffered text.
+ */
+public abstract class WindowedWriter extends Writer
+{
+    protected Writer out;
+    protected StringBuilder buffer = new StringBuilder();
+    protected int context = 0;
+    // offset of the first buffered character in the text written to this writer
+    protected long offset = 0;
+    protected int span;
+    protected int window;
+    // buffered length at which the next window is processed
+    private int next;
+    private StringBuilder output = new StringBuilder();
+
+    public WindowedWriter(Writer out, int span, int window) {
+        this.out = out;
+        this.span = Math.max(0, span);
+        this.window = Math.max(1, window);
+        this.next = this.span + this.window;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        buffer.append(cbuf, off, len);
+        if(buffer.length() >= next) {
+            process(false);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        buffer.append(str, off, off + len);
+        if(buffer.length() >= next) {
+            process(false);
+        }
+    }
+
+    /*
+        Only flushes what has already been translated; held back text is written on close()
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /*
+        Translates and writes out everything still held back, in this and all following
+        stages, without closing the final writer.
+     */
+    public void finish() throws IOException {
+        process(true);
+        if(out instanceof WindowedWriter)
+            ((WindowedWriter)out).finish();
+        else
+            out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    private void process(boolean eof) throws IOException {
+        int limit = eof ? buffer.length() : buffer.length() - span;
+        if(limit <= context && !eof)
+            return;
+
+        // the buffer is matched in place, it only changes after translate returns
+        int committed = translate(buffer, context, limit, eof, output);
+        out.append(output);
+        output.setLength(0);
+
+        int keep = Math.min(span, committed);
+        buffer.delete(0, committed - keep);
+        offset += committed - keep;
+        context = keep;
+        // a match left for the next window gets a whole window of new text
+        next = committed < limit ? buffer.length() + window : context + span + window;
+    }
+
+    /*
+        Translates text starting at 'from' and appends the result to out. Matches starting
+        before limit must be translated; the text before limit that is not part of a match is
+        copied as is. Returns the offset up to which text was consumed, at least limit, or
+        less before eof when a match can only be decided once more text has been written.
+        The end of text is the end of the source only when eof is set.
+     */
+    protected abstract int translate(CharSequence text, int from, int limit, boolean eof, StringBuilder out) throws IOException;
+}
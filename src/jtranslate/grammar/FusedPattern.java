@@ -0,0 +1,220 @@
+package jtranslate.grammar;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/*
+    All translation and scripted translation rules compiled into a single alternation,
+    so the source only has to be scanned once. Each rule is wrapped in its own capturing
+    group, and back-references inside a rule are renumbered to match its new position.
+    When several rules can match at the same offset, the one that comes first wins.
+
+    The overlap pattern is the same alternation inside a lookahead. It matches at every
+    offset where any rule matches, and its groups tell which rule comes first there.
+ */
+public class FusedPattern
+{
+    private List<GrammarRule> rules = new ArrayList<GrammarRule>();
+    private List<Pattern> patterns = new ArrayList<Pattern>();
+    private int[] bases;
+    private int[] groupCounts;
+    private Pattern pattern;
+    private Pattern overlap;
+    private ThreadLocal<Matcher> matchers = new ThreadLocal<Matcher>();
+    private ThreadLocal<Matcher> overlapMatchers = new ThreadLocal<Matcher>();
+    private LinkedList<RuleConflict> conflicts = new LinkedList<RuleConflict>();
+
+    public FusedPattern(Iterable<GrammarRule> grammarRules) {
+        for(GrammarRule rule : grammarRules) {
+            if(rule.getType() != GrammarType.Reference) {
+                rules.add(rule);
+                patterns.add(rule.getPattern());
+            }
+        }
+
+        bases = new int[rules.size()];
+        groupCounts = new int[rules.size()];
+        StringBuilder sb = new StringBuilder();
+        int group = 1;
+        for(int i = 0; i<rules.size(); i++) {
+            groupCounts[i] = patterns.get(i).matcher("").groupCount();
+            bases[i] = group;
+
+            if(i > 0)
+                sb.append('|');
+            sb.append('(').append(renumber(rules.get(i).getRule(), group, groupCounts[i])).append(')');
+            group += groupCounts[i] + 1;
+        }
+
+        if(!rules.isEmpty()) {
+            try {
+                pattern = Pattern.compile(sb.toString());
+                overlap = Pattern.compile("(?="+sb+")");
+            }
+            catch(PatternSyntaxException e) {
+                conflicts.add(new RuleConflict(findUnfusable(), null, "can not be combined with the preceding rules ("+e.getDescription()+")"));
+            }
+        }
+    }
+
+    /*
+        True when the fused pattern could be built. Conflicts found while translating
+        individual sources are reported by the TranslationManager instead.
+     */
+    public boolean isUsable() {
+        return conflicts.isEmpty();
+    }
+
+    public LinkedList<RuleConflict> getConflicts() {
+        return conflicts;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    public Matcher getMatcher(CharSequence input) {
+        return matcher(matchers, pattern, input);
+    }
+
+    /*
+        Matcher over the overlap pattern with transparent bounds, so a region limits only
+        the offsets tried and not the matches. ruleIndex() works on its matches as well.
+     */
+    public Matcher getOverlapMatcher(CharSequence input) {
+        Matcher m = matcher(overlapMatchers, overlap, input);
+        m.useTransparentBounds(true);
+        m.useAnchoringBounds(false);
+        return m;
+    }
+
+    private static Matcher matcher(ThreadLocal<Matcher> matchers, Pattern pattern, CharSequence input) {
+        Matcher m = matchers.get();
+        if(m == null) {
+            m = pattern.matcher(input);
+            matchers.set(m);
+        }
+        else {
+            m.reset(input);
+        }
+        return m;
+    }
+
+    public List<GrammarRule> getRules() {
+        return rules;
+    }
+
+    public GrammarRule getRule(int index) {
+        return rules.get(index);
+    }
+
+    public Pattern getRulePattern(int index) {
+        return patterns.get(index);
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /*
+        Index of the rule responsible for the current match of a matcher over getPattern()
+     */
+    public int ruleIndex(MatchResult mat) {
+        for(int i = 0; i<bases.length; i++) {
+            if(mat.start(bases[i]) != -1)
+                return i;
+        }
+        throw new Error("Fused match does not belong to any rule!");
+    }
+
+    public MatchResult ruleMatch(MatchResult mat, int index) {
+        return new RuleMatchResult(mat, bases[index], groupCounts[index]);
+    }
+
+    private String findUnfusable() {
+        StringBuilder sb = new StringBuilder();
+        int group = 1;
+        for(int i = 0; i<rules.size(); i++) {
+            if(i > 0)
+                sb.append('|');
+            sb.append('(').append(renumber(rules.get(i).getRule(), group, groupCounts[i])).append(')');
+            group += groupCounts[i] + 1;
+            try {
+                Pattern.compile(sb.toString());
+            }
+            catch(PatternSyntaxException e) {
+                return rules.get(i).getKey();
+            }
+        }
+        return null;
+    }
+
+    /*
+        Shifts numbered back-references by offset. Follows the java.util.regex rules for
+        reading a back-reference: the first digit always belongs to it, following digits
+        only while the group number stays valid. The result is wrapped in a
+        non-capturing group so a literal digit after it can't be read as part of it.
+     */
+    static String renumber(String regex, int offset, int groupCount) {
+        StringBuilder sb = new StringBuilder(regex.length() + 16);
+        int classDepth = 0;
+        boolean quoted = false;
+        int i = 0;
+        while(i < regex.length()) {
+            char c = regex.charAt(i);
+            char next = i+1 < regex.length() ? regex.charAt(i+1) : 0;
+
+            if(quoted) {
+                if(c == '\\' && next == 'E') {
+                    quoted = false;
+                    sb.append(c).append(next);
+                    i += 2;
+                }
+                else {
+                    sb.append(c);
+                    i++;
+                }
+            }
+            else if(c == '\\') {
+                if(next == 'Q') {
+                    quoted = true;
+                    sb.append(c).append(next);
+                    i += 2;
+                }
+                else if(classDepth == 0 && next >= '1' && next <= '9') {
+                    int ref = next - '0';
+                    int j = i+2;
+                    while(j < regex.length() && Character.isDigit(regex.charAt(j))) {
+                        int extended = ref*10 + (regex.charAt(j) - '0');
+                        if(extended > groupCount)
+                            break;
+                        ref = extended;
+                        j++;
+                    }
+                    sb.append("(?:\\").append(ref + offset).append(')');
+                    i = j;
+                }
+                else {
+                    sb.append(c);
+                    if(next != 0)
+                        sb.append(next);
+                    i += 2;
+                }
+            }
+            else {
+                if(c == '[')
+                    classDepth++;
+                else if(c == ']' && classDepth > 0)
+                    classDepth--;
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+}
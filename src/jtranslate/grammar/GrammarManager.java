@@ -42,8 +42,9 @@ public class GrammarManager
     }
 
     public void compileRules() {
+        ReferenceResolver refs = new ReferenceResolver(grammars);
         for(GrammarRule rule : grammars.values()) {
-            rule.compileRule(grammars);
+            rule.compileRule(refs);
         }
     }
 }
@@ -1,8 +1,9 @@
 package jtranslate.grammar;
 
 import java.util.Hashtable;
-import java.util.regex.Matcher;
+import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class GrammarRule
 {
@@ -13,6 +14,13 @@ public class GrammarRule
     String script;
 	GrammarType grammarType;
     String translatorName;
+    Pattern pattern;
+    Pattern lookahead;
+    boolean noLookahead = false;
+    int maxSpan = SpanEstimator.UNBOUNDED;
+    boolean spanDeclared = false;
+    Set<String> literals;
+    boolean analyzed = false;
 
 	public GrammarRule(String key, String pattern, GrammarType gt)
 	{
@@ -29,25 +37,71 @@ public class GrammarRule
 
 	public void compileRule(Hashtable<String, GrammarRule> grams)
 	{
-        boolean changed;
-		do {
-			changed = false;
-			Matcher m = GrammarRule.RefGrammar.matcher(this.rule);
-			while(m.find())
-			{
-				String ref = m.group();
-				String refKey = ref.substring(1, ref.length()-1);
-				if(!grams.containsKey(refKey))
-					throw new Error("Can not compile rule: \""+this.key+"\" Dependency rule \""+ref+"\"' is not defined!");
-				String repRule = grams.get(refKey).rule;
-				this.rule = this.rule.replace(ref, repRule);
-				changed = true;
-			}
-		} while(changed);
+        compileRule(new ReferenceResolver(grams));
 	}
 
+    /*
+        Expands references with a resolver shared by all rules of a grammar, so each
+        referenced rule is only expanded once
+     */
+    public void compileRule(ReferenceResolver refs)
+    {
+        this.rule = refs.expand(this);
+
+        pattern = Pattern.compile(this.rule);
+        lookahead = null;
+        noLookahead = false;
+        if(analyzed) {
+            return;
+        }
+        if(!spanDeclared) {
+            maxSpan = SpanEstimator.maxLength(this.rule);
+        }
+        literals = LiteralExtractor.requiredLiterals(this.rule);
+    }
+
+    /*
+        Restores what compileRule() found out about a rule compiled before, compileRule()
+        then only compiles the pattern
+     */
+    public void setAnalysis(int maxSpan, Set<String> literals) {
+        this.maxSpan = maxSpan;
+        this.literals = literals;
+        analyzed = true;
+    }
+
+    /*
+        Literals of which every match contains at least one, or null when unknown. Set by
+        compileRule().
+     */
+    public Set<String> getRequiredLiterals() {
+        return literals;
+    }
+
     public Pattern getPattern() {
-        return Pattern.compile(this.rule);
+        if(pattern == null) {
+            pattern = Pattern.compile(this.rule);
+        }
+        return pattern;
+    }
+
+    /*
+        The rule's pattern inside a lookahead, with the match as group 1. Finding it tries
+        the same offsets and finds the same matches as the pattern, but with transparent
+        bounds a match may run past the end of the region, so the region only limits where
+        matches start. Null when the pattern can't be wrapped.
+     */
+    public Pattern getLookaheadPattern() {
+        if(lookahead == null && !noLookahead) {
+            Pattern p = getPattern();
+            try {
+                lookahead = Pattern.compile("(?=("+FusedPattern.renumber(p.pattern(), 1, p.matcher("").groupCount())+"))", p.flags());
+            }
+            catch(PatternSyntaxException e) {
+                noLookahead = true;
+            }
+        }
+        return lookahead;
     }
 
     public String getKey() {
@@ -70,6 +124,26 @@ public class GrammarRule
         translatorName = name;
     }
 
+    /*
+        Longest match this rule can produce, either declared in the grammar file or inferred
+        from the compiled rule. SpanEstimator.UNBOUNDED if neither is known.
+     */
+    public int getMaxSpan() {
+        return this.maxSpan;
+    }
+
+    public void setMaxSpan(int span) {
+        maxSpan = span;
+        spanDeclared = true;
+    }
+
+    /*
+        True when the grammar file declared the maximum match length
+     */
+    public boolean isSpanDeclared() {
+        return spanDeclared;
+    }
+
     public String getScript() {
         return this.script;
     }
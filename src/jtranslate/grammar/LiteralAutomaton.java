@@ -0,0 +1,134 @@
+package jtranslate.grammar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Aho-Corasick automaton that reports which of a set of literals occur in a text,
+    overlapping occurrences included. Unlike RewriteAutomaton it replaces nothing and stops
+    as soon as every literal has been seen.
+ */
+public class LiteralAutomaton
+{
+    private static final int ROOT = 0;
+
+    private char[][] keys;
+    private int[][] next;
+    private int[] fail;
+    // literals ending in a state, and the next state on the failure chain that has some
+    private int[][] outputs;
+    private int[] outputLink;
+    private int count;
+
+    public LiteralAutomaton(List<String> literals) {
+        ArrayList<Map<Character, Integer>> trie = new ArrayList<Map<Character, Integer>>();
+        ArrayList<LinkedList<Integer>> terminal = new ArrayList<LinkedList<Integer>>();
+        trie.add(new HashMap<Character, Integer>());
+        terminal.add(new LinkedList<Integer>());
+
+        count = literals.size();
+        for(int l = 0; l<literals.size(); l++) {
+            String literal = literals.get(l);
+            int state = ROOT;
+            for(int i = 0; i<literal.length(); i++) {
+                Integer s = trie.get(state).get(literal.charAt(i));
+                if(s == null) {
+                    s = trie.size();
+                    trie.add(new HashMap<Character, Integer>());
+                    terminal.add(new LinkedList<Integer>());
+                    trie.get(state).put(literal.charAt(i), s);
+                }
+                state = s;
+            }
+            terminal.get(state).add(l);
+        }
+
+        int size = trie.size();
+        keys = new char[size][];
+        next = new int[size][];
+        outputs = new int[size][];
+        for(int s = 0; s<size; s++) {
+            Character[] cs = trie.get(s).keySet().toArray(new Character[0]);
+            Arrays.sort(cs);
+            keys[s] = new char[cs.length];
+            next[s] = new int[cs.length];
+            for(int i = 0; i<cs.length; i++) {
+                keys[s][i] = cs[i];
+                next[s][i] = trie.get(s).get(cs[i]);
+            }
+            outputs[s] = new int[terminal.get(s).size()];
+            int i = 0;
+            for(Integer l : terminal.get(s)) {
+                outputs[s][i++] = l;
+            }
+        }
+
+        // breadth first so failure targets are always finished before they are used
+        fail = new int[size];
+        outputLink = new int[size];
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        queue.add(ROOT);
+        while(!queue.isEmpty()) {
+            int s = queue.removeFirst();
+            if(s == ROOT)
+                outputLink[s] = -1;
+            else
+                outputLink[s] = outputs[fail[s]].length > 0 ? fail[s] : outputLink[fail[s]];
+
+            for(int i = 0; i<keys[s].length; i++) {
+                int child = next[s][i];
+                fail[child] = s == ROOT ? ROOT : step(fail[s], keys[s][i]);
+                queue.add(child);
+            }
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /*
+        Indexes of the literals that occur in text
+     */
+    public BitSet scan(CharSequence text) {
+        return scan(text, new BitSet(count));
+    }
+
+    /*
+        scan() into a cleared BitSet the caller reuses
+     */
+    public BitSet scan(CharSequence text, BitSet found) {
+        found.clear();
+        int remaining = count;
+        int state = ROOT;
+        int length = text.length();
+        for(int i = 0; i<length && remaining > 0; i++) {
+            state = step(state, text.charAt(i));
+            for(int s = state; s != -1; s = outputLink[s]) {
+                for(int l : outputs[s]) {
+                    if(!found.get(l)) {
+                        found.set(l);
+                        remaining--;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int step(int state, char c) {
+        while(true) {
+            int i = Arrays.binarySearch(keys[state], c);
+            if(i >= 0)
+                return next[state][i];
+            if(state == ROOT)
+                return ROOT;
+            state = fail[state];
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package jtranslate.grammar;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/*
+    Finds literals that every match of a regular expression must contain. The result is a
+    set of strings of which at least one occurs in any match, or null when no such set is
+    known. Anything that isn't a plain character (classes, '.', back-references,
+    predefined classes) is treated as unknown, so the result may miss literals but never
+    names one that a match can do without.
+
+    Expressions with inline flags are not analyzed, since case insensitive or comments
+    mode change what a literal matches.
+ */
+public class LiteralExtractor
+{
+    // largest number of alternatives kept for a literal set
+    public static final int MAX_LITERALS = 16;
+
+    private String regex;
+    private int pos;
+
+    private LiteralExtractor(String regex) {
+        this.regex = regex;
+    }
+
+    public static Set<String> requiredLiterals(String regex) {
+        if(hasInlineFlags(regex))
+            return null;
+
+        LiteralExtractor e = new LiteralExtractor(regex);
+        try {
+            Info info = e.alternation();
+            return info.required;
+        }
+        catch(IndexOutOfBoundsException ex) {
+            // not a valid expression, Pattern.compile reports it
+            return null;
+        }
+    }
+
+    /*
+        What is known about the strings a part of the expression matches: exact is the
+        complete set of them when it is small, required a set of literals one of which is
+        part of every match. Either is null when unknown.
+     */
+    private static class Info
+    {
+        Set<String> exact;
+        Set<String> required;
+
+        Info(Set<String> exact, Set<String> required) {
+            this.exact = exact;
+            this.required = required;
+        }
+
+        static Info exact(Set<String> exact) {
+            return new Info(exact, usable(exact) ? exact : null);
+        }
+
+        static Info unknown() {
+            return new Info(null, null);
+        }
+    }
+
+    private Info alternation() {
+        Info first = sequence();
+        Set<String> exact = first.exact;
+        Set<String> required = first.required;
+        while(pos < regex.length() && regex.charAt(pos) == '|') {
+            pos++;
+            Info next = sequence();
+            exact = union(exact, next.exact);
+            required = union(required, next.required);
+        }
+        return new Info(exact, usable(required) ? required : null);
+    }
+
+    /*
+        Runs of atoms with exact sets are joined into longer literals, the best literal set
+        found in the sequence is required.
+     */
+    private Info sequence() {
+        Set<String> run = single("");
+        Set<String> best = null;
+        boolean exact = true;
+        while(pos < regex.length() && regex.charAt(pos) != '|' && regex.charAt(pos) != ')') {
+            Info atom = quantifier(atom());
+            Set<String> joined = atom.exact == null ? null : product(run, atom.exact);
+            if(joined != null) {
+                run = joined;
+                continue;
+            }
+
+            // the exact set grew too large or is unknown, start a new run
+            exact = false;
+            best = better(best, run);
+            if(atom.exact != null) {
+                run = atom.exact;
+            }
+            else {
+                best = better(best, atom.required);
+                run = single("");
+            }
+        }
+        best = better(best, run);
+        return new Info(exact ? run : null, best);
+    }
+
+    private Info atom() {
+        char c = regex.charAt(pos++);
+        switch(c) {
+            case '(':
+                return group();
+            case '[':
+                characterClass();
+                return Info.unknown();
+            case '\\':
+                return escape();
+            case '^':
+            case '$':
+                return Info.exact(single(""));
+            case '.':
+                return Info.unknown();
+            default:
+                return Info.exact(single(String.valueOf(c)));
+        }
+    }
+
+    private Info group() {
+        boolean consumes = true;
+        if(regex.charAt(pos) == '?') {
+            pos++;
+            char c = regex.charAt(pos);
+            if(c == '=' || c == '!') {
+                consumes = false;
+                pos++;
+            }
+            else if(c == '<' && (regex.charAt(pos+1) == '=' || regex.charAt(pos+1) == '!')) {
+                consumes = false;
+                pos += 2;
+            }
+            else if(c == '<') {
+                pos = regex.indexOf('>', pos) + 1;
+            }
+            else {
+                // (?: and (?>
+                pos++;
+            }
+        }
+
+        Info inner = alternation();
+        pos++; // consume )
+        return consumes ? inner : Info.exact(single(""));
+    }
+
+    private void characterClass() {
+        int depth = 1;
+        if(regex.charAt(pos) == '^')
+            pos++;
+        if(regex.charAt(pos) == ']')
+            pos++;
+        while(depth > 0) {
+            char c = regex.charAt(pos++);
+            if(c == '\\')
+                pos++;
+            else if(c == '[')
+                depth++;
+            else if(c == ']')
+                depth--;
+        }
+    }
+
+    private Info escape() {
+        char c = regex.charAt(pos++);
+        switch(c) {
+            case 'b': case 'B': case 'A': case 'z': case 'Z': case 'G':
+                return Info.exact(single(""));
+            case 't':
+                return Info.exact(single("\t"));
+            case 'n':
+                return Info.exact(single("\n"));
+            case 'r':
+                return Info.exact(single("\r"));
+            case 'f':
+                return Info.exact(single("\f"));
+            case 'a':
+                return Info.exact(single("\u0007"));
+            case 'e':
+                return Info.exact(single("\u001B"));
+            case 'Q':
+                int end = regex.indexOf("\\E", pos);
+                end = end == -1 ? regex.length() : end;
+                String quoted = regex.substring(pos, end);
+                pos = Math.min(regex.length(), end + 2);
+                return Info.exact(single(quoted));
+            case 'p': case 'P':
+                if(regex.charAt(pos) == '{')
+                    pos = regex.indexOf('}', pos) + 1;
+                else
+                    pos++;
+                return Info.unknown();
+            case 'x':
+                if(regex.charAt(pos) == '{')
+                    pos = regex.indexOf('}', pos) + 1;
+                else
+                    pos += 2;
+                return Info.unknown();
+            case 'u':
+                pos += 4;
+                return Info.unknown();
+            case 'c':
+                pos++;
+                return Info.unknown();
+            case 'k':
+                pos = regex.indexOf('>', pos) + 1;
+                return Info.unknown();
+            case '0':
+                while(pos < regex.length() && regex.charAt(pos) >= '0' && regex.charAt(pos) <= '7')
+                    pos++;
+                return Info.unknown();
+            default:
+                if(Character.isLetterOrDigit(c)) {
+                    // predefined classes and back-references
+                    while(c >= '1' && c <= '9' && pos < regex.length() && Character.isDigit(regex.charAt(pos)))
+                        pos++;
+                    return Info.unknown();
+                }
+                return Info.exact(single(String.valueOf(c)));
+        }
+    }
+
+    private Info quantifier(Info atom) {
+        if(pos >= regex.length())
+            return atom;
+
+        Info result;
+        char c = regex.charAt(pos);
+        if(c == '*') {
+            pos++;
+            result = optional(atom);
+        }
+        else if(c == '+') {
+            pos++;
+            result = new Info(null, atom.required);
+        }
+        else if(c == '?') {
+            pos++;
+            result = optional(atom);
+        }
+        else if(c == '{' && isRange(pos)) {
+            int close = regex.indexOf('}', pos);
+            String range = regex.substring(pos+1, close);
+            pos = close + 1;
+            int comma = range.indexOf(',');
+            long min = Long.parseLong((comma == -1 ? range : range.substring(0, comma)).trim());
+            if(min == 0)
+                result = optional(atom);
+            else if(comma == -1 && atom.exact != null && min <= MAX_LITERALS)
+                result = Info.exact(power(atom.exact, (int)min));
+            else
+                result = new Info(null, atom.required);
+        }
+        else {
+            return atom;
+        }
+
+        // lazy and possessive modifiers don't change what is matched
+        if(pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+'))
+            pos++;
+        return result;
+    }
+
+    private Info optional(Info atom) {
+        if(regex.charAt(pos-1) == '?' && atom.exact != null)
+            return new Info(union(atom.exact, single("")), null);
+        return Info.unknown();
+    }
+
+    private boolean isRange(int start) {
+        int close = regex.indexOf('}', start);
+        return close != -1 && regex.substring(start+1, close).matches("\\s*\\d+\\s*(,\\s*\\d*\\s*)?");
+    }
+
+    private static boolean hasInlineFlags(String regex) {
+        for(int i = regex.indexOf("(?"); i != -1; i = regex.indexOf("(?", i+1)) {
+            if(isEscaped(regex, i))
+                continue;
+            char c = i+2 < regex.length() ? regex.charAt(i+2) : ')';
+            if(Character.isLetter(c) || c == '-')
+                return true;
+        }
+        return false;
+    }
+
+    /*
+        True when the character at i is a literal, preceded by an odd number of backslashes
+     */
+    private static boolean isEscaped(String regex, int i) {
+        int n = 0;
+        while(i-n-1 >= 0 && regex.charAt(i-n-1) == '\\')
+            n++;
+        return n % 2 == 1;
+    }
+
+    private static Set<String> single(String s) {
+        Set<String> set = new LinkedHashSet<String>();
+        set.add(s);
+        return set;
+    }
+
+    private static Set<String> union(Set<String> a, Set<String> b) {
+        if(a == null || b == null)
+            return null;
+        Set<String> set = new LinkedHashSet<String>(a);
+        set.addAll(b);
+        return set.size() > MAX_LITERALS ? null : set;
+    }
+
+    private static Set<String> product(Set<String> a, Set<String> b) {
+        if(a.size() * b.size() > MAX_LITERALS)
+            return null;
+        Set<String> set = new LinkedHashSet<String>();
+        for(String x : a) {
+            for(String y : b) {
+                set.add(x+y);
+            }
+        }
+        return set;
+    }
+
+    private static Set<String> power(Set<String> a, int n) {
+        Set<String> set = single("");
+        for(int i = 0; i<n && set != null; i++) {
+            set = product(set, a);
+        }
+        return set;
+    }
+
+    /*
+        Literal sets without the empty string say something about a match
+     */
+    private static boolean usable(Set<String> set) {
+        return set != null && !set.isEmpty() && !set.contains("");
+    }
+
+    /*
+        The set whose shortest literal is longest, so it rules out the most sources
+     */
+    private static Set<String> better(Set<String> a, Set<String> b) {
+        if(!usable(b))
+            return a;
+        if(!usable(a))
+            return b;
+        int ma = shortest(a), mb = shortest(b);
+        if(mb > ma || (mb == ma && b.size() < a.size()))
+            return b;
+        return a;
+    }
+
+    private static int shortest(Set<String> set) {
+        int min = Integer.MAX_VALUE;
+        for(String s : set) {
+            min = Math.min(min, s.length());
+        }
+        return min;
+    }
+}
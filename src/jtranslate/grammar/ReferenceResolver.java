@@ -0,0 +1,129 @@
+package jtranslate.grammar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+/*
+    Expands <name> references in rule patterns. The references between rules form a graph
+    that is walked depth first, so every rule is expanded after the rules it refers to and
+    only once per resolver. Rules referring to it reuse the stored expansion, which keeps
+    the total cost at the size of the grammar plus the size of the expanded patterns.
+
+    A reference back to a rule that is still being expanded is a cycle, reported as an
+    Error naming the rules on it.
+
+    Substituting references can put together a new one, <<name>> with name being abc
+    becomes <abc>. A rule's expansion is scanned again until it has no references left,
+    so such a reference is expanded or reported as undefined like any other.
+ */
+public class ReferenceResolver
+{
+    private Map<String, GrammarRule> grams;
+    private Map<String, String> expanded = new HashMap<String, String>();
+
+    public ReferenceResolver(Map<String, GrammarRule> grams) {
+        this.grams = grams;
+    }
+
+    /*
+        The rule's pattern with all references replaced. rule doesn't have to be one of the
+        resolver's rules, its expansion is only remembered when it is.
+     */
+    public String expand(GrammarRule rule) {
+        if(grams.get(rule.key) == rule && expanded.containsKey(rule.key))
+            return expanded.get(rule.key);
+
+        // explicit stack instead of recursion, generated grammars can nest deeply
+        ArrayList<Frame> stack = new ArrayList<Frame>();
+        Set<String> active = new HashSet<String>();
+        stack.add(new Frame(rule));
+        active.add(rule.key);
+
+        String result = null;
+        while(!stack.isEmpty()) {
+            Frame f = stack.get(stack.size()-1);
+            if(f.pending != null) {
+                f.out.append(expanded.get(f.pending));
+                f.pending = null;
+            }
+
+            if(f.refs.find()) {
+                String ref = f.refs.group();
+                String refKey = ref.substring(1, ref.length()-1);
+                f.out.append(f.text, f.last, f.refs.start());
+                f.last = f.refs.end();
+                f.substituted = true;
+
+                String done = expanded.get(refKey);
+                if(done != null) {
+                    f.out.append(done);
+                    continue;
+                }
+                if(!grams.containsKey(refKey))
+                    throw new Error("Can not compile rule: \""+f.rule.key+"\" Dependency rule \""+ref+"\"' is not defined!");
+                if(active.contains(refKey))
+                    throw new Error("Can not compile rule: \""+rule.key+"\" Reference cycle "+cycle(stack, refKey));
+
+                f.pending = refKey;
+                stack.add(new Frame(grams.get(refKey)));
+                active.add(refKey);
+            }
+            else {
+                f.out.append(f.text, f.last, f.text.length());
+                result = f.out.toString();
+                if(f.substituted && GrammarRule.RefGrammar.matcher(result).find()) {
+                    f.scan(result);
+                    continue;
+                }
+                stack.remove(stack.size()-1);
+                active.remove(f.rule.key);
+                if(grams.get(f.rule.key) == f.rule)
+                    expanded.put(f.rule.key, result);
+            }
+        }
+        return result;
+    }
+
+    private static String cycle(ArrayList<Frame> stack, String refKey) {
+        StringBuilder sb = new StringBuilder();
+        boolean on = false;
+        for(Frame f : stack) {
+            on = on || f.rule.key.equals(refKey);
+            if(on)
+                sb.append('<').append(f.rule.key).append("> -> ");
+        }
+        return sb.append('<').append(refKey).append('>').toString();
+    }
+
+    /*
+        A rule being expanded: text is scanned for references and expanded into out
+     */
+    private static class Frame
+    {
+        final GrammarRule rule;
+        String text;
+        Matcher refs;
+        StringBuilder out;
+        int last;
+        String pending;
+        // whether a reference was replaced in this scan of text
+        boolean substituted;
+
+        Frame(GrammarRule rule) {
+            this.rule = rule;
+            scan(rule.rule);
+        }
+
+        void scan(String text) {
+            this.text = text;
+            refs = GrammarRule.RefGrammar.matcher(text);
+            out = new StringBuilder(text.length());
+            last = 0;
+            substituted = false;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package jtranslate.grammar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/*
+    Aho-Corasick automaton over the search strings of a set of rewrite rules. Every
+    rewrite is applied in a single pass over the source.
+
+    Priority: the occurrence that starts first wins. When several search strings start at
+    the same offset, the rule that was declared first wins, so a duplicate search string
+    (like the second "#NAME" in global.jtg) never replaces anything. Replacement text is
+    not searched again.
+ */
+public class RewriteAutomaton
+{
+    private static final int ROOT = 0;
+
+    private char[][] keys;
+    private int[][] next;
+    private int[] fail;
+    private int[] outLength;
+    private int[] outRule;
+    private String[] replacements;
+    private int maxLength = 0;
+
+    public RewriteAutomaton(Iterable<RewriteRule> rules) {
+        ArrayList<Map<Character, Integer>> trie = new ArrayList<Map<Character, Integer>>();
+        ArrayList<Integer> terminal = new ArrayList<Integer>();
+        ArrayList<Integer> depth = new ArrayList<Integer>();
+        ArrayList<String> reps = new ArrayList<String>();
+        trie.add(new HashMap<Character, Integer>());
+        terminal.add(-1);
+        depth.add(0);
+
+        for(RewriteRule rr : rules) {
+            String search = rr.getSearch();
+            if(search.length() == 0)
+                continue;
+
+            int state = ROOT;
+            for(int i = 0; i<search.length(); i++) {
+                Integer s = trie.get(state).get(search.charAt(i));
+                if(s == null) {
+                    s = trie.size();
+                    trie.add(new HashMap<Character, Integer>());
+                    terminal.add(-1);
+                    depth.add(i+1);
+                    trie.get(state).put(search.charAt(i), s);
+                }
+                state = s;
+            }
+
+            // the first declaration of a search string wins
+            if(terminal.get(state) == -1) {
+                terminal.set(state, reps.size());
+                reps.add(rr.getReplace());
+                maxLength = Math.max(maxLength, search.length());
+            }
+        }
+
+        int size = trie.size();
+        keys = new char[size][];
+        next = new int[size][];
+        for(int s = 0; s<size; s++) {
+            Character[] cs = trie.get(s).keySet().toArray(new Character[0]);
+            Arrays.sort(cs);
+            keys[s] = new char[cs.length];
+            next[s] = new int[cs.length];
+            for(int i = 0; i<cs.length; i++) {
+                keys[s][i] = cs[i];
+                next[s][i] = trie.get(s).get(cs[i]);
+            }
+        }
+        replacements = reps.toArray(new String[reps.size()]);
+
+        // breadth first so failure targets are always finished before they are used
+        fail = new int[size];
+        outLength = new int[size];
+        outRule = new int[size];
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        queue.add(ROOT);
+        while(!queue.isEmpty()) {
+            int s = queue.removeFirst();
+            outLength[s] = terminal.get(s) == -1 ? 0 : depth.get(s);
+            outRule[s] = terminal.get(s);
+
+            // an output reachable through the failure link is shorter, so it only wins without an own output
+            if(s != ROOT && outRule[s] == -1 && outRule[fail[s]] != -1) {
+                outLength[s] = outLength[fail[s]];
+                outRule[s] = outRule[fail[s]];
+            }
+
+            for(int i = 0; i<keys[s].length; i++) {
+                int child = next[s][i];
+                fail[child] = s == ROOT ? ROOT : step(fail[s], keys[s][i]);
+                queue.add(child);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return replacements.length == 0;
+    }
+
+    /*
+        Length of the longest search string, the widest span a rewrite can cover
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public String rewrite(CharSequence source) {
+        if(isEmpty())
+            return source.toString();
+
+        StringBuilder sb = new StringBuilder(source.length() + 16);
+        rewrite(source, 0, source.length(), sb);
+        return sb.toString();
+    }
+
+    /*
+        Rewrites source from the offset 'from', appending the result to out. Occurrences
+        starting before limit are always replaced; text at or after limit is only written
+        when an occurrence reaching past it was replaced. Returns the offset up to which
+        source has been written to out, which is never less than limit.
+
+        Used with limit = length - getMaxLength() this rewrites a window of a larger input,
+        since no occurrence starting before limit can reach past the end of the window.
+     */
+    public int rewrite(CharSequence source, int from, int limit, StringBuilder out) {
+        int pos = from;
+        int state = ROOT;
+        int bestStart = -1, bestEnd = -1, bestRule = -1;
+        int i = from;
+        int length = source.length();
+        while(i <= length) {
+            // no later occurrence can start at or before the best one, so commit it
+            if(bestRule != -1 && ((i == length && bestStart < limit) || i - maxLength >= bestStart)) {
+                out.append(source, pos, bestStart).append(replacements[bestRule]);
+                pos = bestEnd;
+                i = pos;
+                state = ROOT;
+                bestRule = -1;
+                continue;
+            }
+            if(i == length)
+                break;
+
+            state = step(state, source.charAt(i));
+            i++;
+
+            int rule = outRule[state];
+            if(rule != -1) {
+                int start = i - outLength[state];
+                if(bestRule == -1 || start < bestStart || (start == bestStart && rule < bestRule)) {
+                    bestStart = start;
+                    bestEnd = i;
+                    bestRule = rule;
+                }
+            }
+        }
+
+        if(pos < limit) {
+            out.append(source, pos, limit);
+            pos = limit;
+        }
+        return pos;
+    }
+
+    private int step(int state, char c) {
+        while(true) {
+            int i = Arrays.binarySearch(keys[state], c);
+            if(i >= 0)
+                return next[state][i];
+            if(state == ROOT)
+                return ROOT;
+            state = fail[state];
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package jtranslate.grammar;
+
+public class RuleConflict
+{
+    private String first;
+    private String second;
+    private String reason;
+
+    public RuleConflict(String first, String second, String reason) {
+        this.first = first;
+        this.second = second;
+        this.reason = reason;
+    }
+
+    public String getFirst() {
+        return first;
+    }
+
+    public String getSecond() {
+        return second;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof RuleConflict))
+            return false;
+        RuleConflict c = (RuleConflict)o;
+        return eq(first, c.first) && eq(second, c.second) && eq(reason, c.reason);
+    }
+
+    @Override
+    public int hashCode() {
+        return String.valueOf(first).hashCode()*31*31 + String.valueOf(second).hashCode()*31 + String.valueOf(reason).hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if(second == null)
+            return String.format("'%s': %s", first, reason);
+        return String.format("'%s' <-> '%s': %s", first, second, reason);
+    }
+
+    private static boolean eq(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
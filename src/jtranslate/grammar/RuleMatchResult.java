@@ -0,0 +1,55 @@
+package jtranslate.grammar;
+
+import java.util.regex.MatchResult;
+
+/*
+    View of a single rule's match inside a fused pattern match. Group numbers are
+    translated so translators and scripts see the same groups they would get from
+    matching their own rule.
+ */
+public class RuleMatchResult implements MatchResult
+{
+    private MatchResult result;
+    private int base;
+    private int groupCount;
+
+    public RuleMatchResult(MatchResult result, int base, int groupCount) {
+        this.result = result;
+        this.base = base;
+        this.groupCount = groupCount;
+    }
+
+    public int start() {
+        return result.start(base);
+    }
+
+    public int start(int group) {
+        return result.start(index(group));
+    }
+
+    public int end() {
+        return result.end(base);
+    }
+
+    public int end(int group) {
+        return result.end(index(group));
+    }
+
+    public String group() {
+        return result.group(base);
+    }
+
+    public String group(int group) {
+        return result.group(index(group));
+    }
+
+    public int groupCount() {
+        return groupCount;
+    }
+
+    private int index(int group) {
+        if(group < 0 || group > groupCount)
+            throw new IndexOutOfBoundsException("No group "+group);
+        return base + group;
+    }
+}
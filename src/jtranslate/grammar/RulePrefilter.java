@@ -0,0 +1,94 @@
+package jtranslate.grammar;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Set;
+
+/*
+    Decides with a single scan for the required literals of all rules which rules can
+    match a source at all. Rules without required literals can always match. Rules are
+    identified by their index among the non-reference rules given to the constructor.
+
+    Rules are applied one after another, so a replacement can add a literal that a later
+    rule needs. Scan the text again after a rule changed it.
+ */
+public class RulePrefilter
+{
+    private LiteralAutomaton automaton;
+    // rule indexes for every literal
+    private int[][] literalRules;
+    private BitSet unfiltered = new BitSet();
+    private int filtered = 0;
+
+    public RulePrefilter(Iterable<GrammarRule> rules) {
+        ArrayList<String> literals = new ArrayList<String>();
+        HashMap<String, Integer> literalIndex = new HashMap<String, Integer>();
+        ArrayList<LinkedList<Integer>> owners = new ArrayList<LinkedList<Integer>>();
+
+        int r = -1;
+        for(GrammarRule rule : rules) {
+            if(rule.getType() == GrammarType.Reference)
+                continue;
+
+            r++;
+            Set<String> required = rule.getRequiredLiterals();
+            if(required == null) {
+                unfiltered.set(r);
+                continue;
+            }
+
+            filtered++;
+            for(String literal : required) {
+                Integer l = literalIndex.get(literal);
+                if(l == null) {
+                    l = literals.size();
+                    literals.add(literal);
+                    literalIndex.put(literal, l);
+                    owners.add(new LinkedList<Integer>());
+                }
+                owners.get(l).add(r);
+            }
+        }
+
+        automaton = new LiteralAutomaton(literals);
+        literalRules = new int[owners.size()][];
+        for(int l = 0; l<owners.size(); l++) {
+            literalRules[l] = new int[owners.get(l).size()];
+            int i = 0;
+            for(Integer owner : owners.get(l)) {
+                literalRules[l][i++] = owner;
+            }
+        }
+    }
+
+    /*
+        False when no rule has required literals, scanning would not rule anything out
+     */
+    public boolean isUseful() {
+        return filtered > 0;
+    }
+
+    /*
+        The indexes of the rules that can match text
+     */
+    public BitSet scan(CharSequence text) {
+        return scan(text, new BitSet(), new BitSet());
+    }
+
+    /*
+        scan() reusing the caller's BitSets, returns candidates
+     */
+    public BitSet scan(CharSequence text, BitSet candidates, BitSet found) {
+        candidates.clear();
+        candidates.or(unfiltered);
+        automaton.scan(text, found);
+        for(int l = found.nextSetBit(0); l >= 0; l = found.nextSetBit(l+1)) {
+            for(int r : literalRules[l]) {
+                candidates.set(r);
+            }
+        }
+        return candidates;
+    }
+}
@@ -0,0 +1,209 @@
+package jtranslate.grammar;
+
+/*
+    Upper bound for the number of characters a regular expression can match. Returns
+    UNBOUNDED for expressions containing *, +, open {n,} ranges or back-references.
+    Lookarounds and anchors don't consume input and count as zero.
+ */
+public class SpanEstimator
+{
+    public static final int UNBOUNDED = -1;
+
+    private String regex;
+    private int pos;
+
+    private SpanEstimator(String regex) {
+        this.regex = regex;
+    }
+
+    public static int maxLength(String regex) {
+        SpanEstimator e = new SpanEstimator(regex);
+        long len = e.alternation();
+        return len < 0 || len > Integer.MAX_VALUE ? UNBOUNDED : (int)len;
+    }
+
+    private long alternation() {
+        long max = sequence();
+        while(pos < regex.length() && regex.charAt(pos) == '|') {
+            pos++;
+            max = max(max, sequence());
+        }
+        return max;
+    }
+
+    private long sequence() {
+        long total = 0;
+        while(pos < regex.length() && regex.charAt(pos) != '|' && regex.charAt(pos) != ')') {
+            long atom = atom();
+            atom = quantifier(atom);
+            total = total < 0 || atom < 0 ? UNBOUNDED : total + atom;
+        }
+        return total;
+    }
+
+    private long atom() {
+        char c = regex.charAt(pos++);
+        switch(c) {
+            case '(':
+                return group();
+            case '[':
+                characterClass();
+                return 1;
+            case '\\':
+                return escape();
+            case '^':
+            case '$':
+                return 0;
+            default:
+                return 1;
+        }
+    }
+
+    private long group() {
+        boolean consumes = true;
+        if(pos < regex.length() && regex.charAt(pos) == '?') {
+            pos++;
+            char c = regex.charAt(pos);
+            if(c == '=' || c == '!') {
+                consumes = false;
+                pos++;
+            }
+            else if(c == '<' && (regex.charAt(pos+1) == '=' || regex.charAt(pos+1) == '!')) {
+                consumes = false;
+                pos += 2;
+            }
+            else if(c == '<') {
+                pos = regex.indexOf('>', pos) + 1;
+            }
+            else if(c == '>') {
+                pos++;
+            }
+            else {
+                // inline flags, either (?flags) or (?flags:...)
+                while(pos < regex.length() && regex.charAt(pos) != ':' && regex.charAt(pos) != ')')
+                    pos++;
+                if(regex.charAt(pos) == ')') {
+                    pos++;
+                    return 0;
+                }
+                pos++;
+            }
+        }
+
+        long len = alternation();
+        pos++; // consume )
+        return consumes ? len : 0;
+    }
+
+    private void characterClass() {
+        int depth = 1;
+        if(pos < regex.length() && regex.charAt(pos) == '^')
+            pos++;
+        if(pos < regex.length() && regex.charAt(pos) == ']')
+            pos++;
+        while(pos < regex.length() && depth > 0) {
+            char c = regex.charAt(pos++);
+            if(c == '\\')
+                pos++;
+            else if(c == '[')
+                depth++;
+            else if(c == ']')
+                depth--;
+        }
+    }
+
+    private long escape() {
+        char c = regex.charAt(pos++);
+        switch(c) {
+            case 'b': case 'B': case 'A': case 'z': case 'Z': case 'G':
+                return 0;
+            case 'Q':
+                int end = regex.indexOf("\\E", pos);
+                end = end == -1 ? regex.length() : end;
+                long len = end - pos;
+                pos = Math.min(regex.length(), end + 2);
+                return len;
+            case 'p': case 'P':
+                if(pos < regex.length() && regex.charAt(pos) == '{')
+                    pos = regex.indexOf('}', pos) + 1;
+                else
+                    pos++;
+                return 1;
+            case 'x':
+                if(pos < regex.length() && regex.charAt(pos) == '{')
+                    pos = regex.indexOf('}', pos) + 1;
+                else
+                    pos += 2;
+                return 1;
+            case 'u':
+                pos += 4;
+                return 1;
+            case 'c':
+                pos++;
+                return 1;
+            case '0':
+                while(pos < regex.length() && regex.charAt(pos) >= '0' && regex.charAt(pos) <= '7')
+                    pos++;
+                return 1;
+            case 'k':
+                pos = regex.indexOf('>', pos) + 1;
+                return UNBOUNDED;
+            default:
+                if(c >= '1' && c <= '9') {
+                    while(pos < regex.length() && Character.isDigit(regex.charAt(pos)))
+                        pos++;
+                    return UNBOUNDED;
+                }
+                return 1;
+        }
+    }
+
+    private long quantifier(long atom) {
+        if(pos >= regex.length())
+            return atom;
+
+        long len;
+        char c = regex.charAt(pos);
+        if(c == '*' || c == '+') {
+            pos++;
+            len = atom == 0 ? 0 : UNBOUNDED;
+        }
+        else if(c == '?') {
+            pos++;
+            len = atom;
+        }
+        else if(c == '{' && isRange(pos)) {
+            int close = regex.indexOf('}', pos);
+            String range = regex.substring(pos+1, close);
+            pos = close + 1;
+            int comma = range.indexOf(',');
+            if(comma == -1)
+                len = times(atom, Long.parseLong(range.trim()));
+            else if(comma == range.length()-1)
+                len = atom == 0 ? 0 : UNBOUNDED;
+            else
+                len = times(atom, Long.parseLong(range.substring(comma+1).trim()));
+        }
+        else {
+            return atom;
+        }
+
+        // lazy and possessive modifiers don't change the bound
+        if(pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+'))
+            pos++;
+        return len;
+    }
+
+    private boolean isRange(int start) {
+        int close = regex.indexOf('}', start);
+        return close != -1 && regex.substring(start+1, close).matches("\\s*\\d+\\s*(,\\s*\\d*\\s*)?");
+    }
+
+    private static long times(long atom, long n) {
+        return atom < 0 ? UNBOUNDED : atom * n;
+    }
+
+    private static long max(long a, long b) {
+        return a < 0 || b < 0 ? UNBOUNDED : Math.max(a, b);
+    }
+}
@@ -3,7 +3,6 @@ package jtranslate.parser;
 import de.susebox.jtopas.*;
 import jtranslate.grammar.*;
 import jtranslate.parser.error.GrammarParserError;
-import sun.font.StandardTextSource;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -12,19 +11,22 @@ import java.util.LinkedList;
 
 public class GrammarParser extends Parser
 {
-    public static final StandardTokenizerProperties PROPERTIES;
-
-    static {
-        PROPERTIES = new StandardTokenizerProperties();
-        PROPERTIES.addBlockComment("/*", "*/");
-        PROPERTIES.addLineComment("//");
-        PROPERTIES.addSpecialSequence("->", TokenType.MAP);
-        PROPERTIES.addSpecialSequence("@", TokenType.SPECIAL_BLOCK);
-        PROPERTIES.setParseFlags(Flags.F_COUNT_LINES);
+    /*
+        Every parser gets its own properties, RewriteParser and GrammarRuleParser change
+        them while parsing. So grammar files can be parsed on several threads at once.
+     */
+    public static StandardTokenizerProperties createProperties() {
+        StandardTokenizerProperties props = new StandardTokenizerProperties();
+        props.addBlockComment("/*", "*/");
+        props.addLineComment("//");
+        props.addSpecialSequence("->", TokenType.MAP);
+        props.addSpecialSequence("@", TokenType.SPECIAL_BLOCK);
+        props.setParseFlags(Flags.F_COUNT_LINES);
+        return props;
     }
 
     public GrammarParser(TokenizerSource src) {
-        super(PROPERTIES, src);
+        super(createProperties(), src);
     }
 
     public GrammarSet parse() throws FileNotFoundException, TokenizerException
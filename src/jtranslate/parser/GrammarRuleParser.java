@@ -25,6 +25,22 @@ public class GrammarRuleParser extends Parser
         }
         tkn = nextToken(); // consume rule name
 
+        int maxSpan = -1;
+        if(currentImage().equals("[")) {
+            nextToken(); // consume [
+            try {
+                maxSpan = Integer.parseInt(currentImage());
+            }
+            catch(NumberFormatException e) {
+                throw new GrammarParserError("Expecting a maximum match length, found '"+currentImage()+"'", this);
+            }
+            nextToken(); // consume length
+            if(!currentImage().equals("]")) {
+                throw new GrammarParserError("Expecting ']', found '"+currentImage()+"'", this);
+            }
+            nextToken(); // consume ]
+        }
+
         boolean trans = false;
         String transName = null, rule;
 
@@ -89,6 +105,9 @@ public class GrammarRuleParser extends Parser
         if(g.getType() == GrammarType.TranslationScript) {
             g.setScript(script);
         }
+        if(maxSpan != -1) {
+            g.setMaxSpan(maxSpan);
+        }
 
 
         return g;